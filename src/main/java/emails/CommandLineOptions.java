@@ -0,0 +1,238 @@
+package emails;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import emails.constants.FilterOutput;
+import emails.processors.DelimitedColumn;
+import emails.processors.EmailParserConfig;
+import emails.processors.EmailValidationConfig;
+
+/**
+ * Options for running {@link EmailDomainsApplication} from the command line. Invalid options are reported as an
+ * {@link IllegalArgumentException} with a message for the user.
+ */
+final class CommandLineOptions {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: EmailDomainsApplication [operation] [options] [file...]",
+            "",
+            "Reads email addresses, one per line, from each file, or from standard input if no file or '-' is given.",
+            "",
+            "Operations:",
+            "  validate          filter the lines in input order, writing the parsed valid addresses by default",
+            "  dedupe            write the valid addresses with duplicates removed, in list order",
+            "  domains           write every domain with its number of valid addresses",
+            "  top               write the domains with the most valid addresses (default)",
+            "",
+            "Options:",
+            "  --emit E          lines written by validate: normalized (default), accepted or rejected, where",
+            "                    accepted and rejected lines are written as they were read, as whole records with",
+            "                    --column, in every format",
+            "  --top N           number of domains written by top (default 10)",
+            "  --validation V    validation rules: generic (default) or strict",
+            "  --parser P        parsing rules: standard (default), or canonical, which removes sub-addresses and",
+            "                    lower cases local parts",
+            "  --threads N       threads used to read files for domains and top (default: available processors)",
+            "  --memory SIZE     memory used by dedupe before spilling to disk, such as 512M or 2G (default 256M)",
+            "  --column C        read addresses from column C of delimited records, given by its name in the header",
+            "                    line or its number from 1, rather than from whole lines",
+            "  --delimiter D     column delimiter: comma (default), tab, or any other single character",
+            "  --header          skip the header line of each input when --column is a number",
+            "  --format F        output format: text (default), csv or json",
+            "  --quiet           don't write the throughput summary to standard error",
+            "  --help            show this message",
+            "",
+            "Exits with status 1 if reading or writing fails, or 2 if the options are invalid, including a --column",
+            "name which isn't in the header line of an input.");
+
+    enum Operation {
+        VALIDATE, DEDUPE, DOMAINS, TOP
+    }
+
+    enum Format {
+        TEXT, CSV, JSON
+    }
+
+    Operation operation = Operation.TOP;
+    int top = 10;
+    EmailValidationConfig validation = EmailValidationConfig.generic();
+    EmailParserConfig parser = EmailParserConfig.standard();
+    int threads = Runtime.getRuntime().availableProcessors();
+    long memoryBudget = 256L * 1024 * 1024;
+    Format format = Format.TEXT;
+    FilterOutput emit = FilterOutput.NORMALIZED;
+    // Null to read addresses from whole lines
+    DelimitedColumn column;
+    boolean quiet;
+    boolean help;
+    // Empty for standard input, which may also be included as a null path
+    final List<Path> inputs = new ArrayList<>();
+
+    private CommandLineOptions() {
+    }
+
+    static CommandLineOptions parse(String... args) {
+        CommandLineOptions options = new CommandLineOptions();
+        String column = null;
+        char delimiter = ',';
+        boolean header = false;
+        int i = 0;
+        if (args.length > 0 && !args[0].startsWith("-") && isOperation(args[0]))
+            options.operation = Operation.valueOf(args[i++].toUpperCase(Locale.ROOT));
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--top":
+                    options.top = positive(arg, value(args, ++i, arg));
+                    break;
+                case "--validation":
+                    options.validation = validation(value(args, ++i, arg));
+                    break;
+                case "--parser":
+                    options.parser = parser(value(args, ++i, arg));
+                    break;
+                case "--threads":
+                    options.threads = positive(arg, value(args, ++i, arg));
+                    break;
+                case "--memory":
+                    options.memoryBudget = size(value(args, ++i, arg));
+                    break;
+                case "--emit":
+                    options.emit = choice(FilterOutput.class, arg, value(args, ++i, arg));
+                    break;
+                case "--column":
+                    column = value(args, ++i, arg);
+                    break;
+                case "--delimiter":
+                    delimiter = delimiter(value(args, ++i, arg));
+                    break;
+                case "--header":
+                    header = true;
+                    break;
+                case "--format":
+                    options.format = choice(Format.class, arg, value(args, ++i, arg));
+                    break;
+                case "--quiet":
+                    options.quiet = true;
+                    break;
+                case "--help":
+                case "-h":
+                    options.help = true;
+                    break;
+                case "-":
+                    options.inputs.add(null);
+                    break;
+                default:
+                    if (arg.startsWith("--"))
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    options.inputs.add(Paths.get(arg));
+            }
+        }
+        if (column != null)
+            options.column = column(column, delimiter, header);
+        return options;
+    }
+
+    private static boolean isOperation(String arg) {
+        for (Operation operation : Operation.values()) {
+            if (operation.name().equalsIgnoreCase(arg))
+                return true;
+        }
+        return false;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length)
+            throw new IllegalArgumentException("Missing value for " + option);
+        return args[index];
+    }
+
+    private static int positive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0)
+                return number;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " must be a positive number");
+    }
+
+    private static <E extends Enum<E>> E choice(Class<E> choices, String option, String value) {
+        try {
+            return Enum.valueOf(choices, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown value for " + option + ": " + value);
+        }
+    }
+
+    private static EmailValidationConfig validation(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "generic":
+                return EmailValidationConfig.generic();
+            case "strict":
+                return EmailValidationConfig.strict();
+            default:
+                throw new IllegalArgumentException("Unknown value for --validation: " + value);
+        }
+    }
+
+    private static EmailParserConfig parser(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "standard":
+                return EmailParserConfig.standard();
+            case "canonical":
+                return EmailParserConfig.custom().includeSubAddresses(false).setCaseSensitive(false).build();
+            default:
+                throw new IllegalArgumentException("Unknown value for --parser: " + value);
+        }
+    }
+
+    private static char delimiter(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "comma":
+                return ',';
+            case "tab":
+            case "\\t":
+                return '\t';
+            default:
+                if (value.length() == 1 && value.charAt(0) < 0x80 && value.charAt(0) != '"')
+                    return value.charAt(0);
+                throw new IllegalArgumentException("--delimiter must be comma, tab or a single character");
+        }
+    }
+
+    /**
+     * Chooses the column by number, counting from 1, or otherwise by its name in the header.
+     */
+    private static DelimitedColumn column(String value, char delimiter, boolean header) {
+        DelimitedColumn.DelimitedColumnBuilder column = DelimitedColumn.custom().setDelimiter(delimiter);
+        if (value.chars().allMatch(Character::isDigit))
+            column.setColumnIndex(positive("--column", value) - 1).setHeader(header);
+        else
+            column.setColumnName(value);
+        return column.build();
+    }
+
+    /**
+     * Reads a number of bytes, with an optional K, M or G suffix.
+     */
+    private static long size(String value) {
+        String digits = value.toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (digits.endsWith("K") || digits.endsWith("M") || digits.endsWith("G")) {
+            multiplier = 1L << (10 * ("KMG".indexOf(digits.charAt(digits.length() - 1)) + 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(digits);
+            if (size > 0)
+                return size * multiplier;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--memory must be a positive size, such as 512M");
+    }
+}
@@ -1,39 +1,326 @@
 package emails;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
+import emails.analysis.DomainCount;
+import emails.analysis.DomainCounter;
+import emails.analysis.ParsedEmail;
+import emails.constants.FilterOutput;
+import emails.processors.CompressedInput;
+import emails.processors.DelimitedColumn;
+import emails.processors.EmailContext;
+import emails.processors.EmailLineFilter;
+import emails.processors.EmailListContext;
+import emails.processors.EmailParser;
+import emails.processors.MappedEmailFile;
+import emails.processors.PipelinedEmailReader;
+
+/**
+ * Runs email list operations from the command line, reading addresses from files or standard input and writing the
+ * results to standard output. A summary of the rows read and the time taken is written to standard error, so the
+ * results can be piped on. See {@link CommandLineOptions#USAGE} for the options.
+ *
+ * Results are written straight to the standard output file descriptor rather than through {@link System#out}, which
+ * hides write errors, so a full disk or a closed pipe stops the operation with exit status 1.
+ */
 public class EmailDomainsApplication {
 
-    // Generated by https://www.randomlists.com/email-addresses
-    private static final String INPUT_FILE = "src/main/java/input_email.txt";
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    public static void main(String... args) {
+        CommandLineOptions options;
+        try {
+            options = CommandLineOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(CommandLineOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.println(CommandLineOptions.USAGE);
+            return;
+        }
+        try {
+            run(options, System.in, new FileOutputStream(FileDescriptor.out), System.err);
+        } catch (IllegalArgumentException e) {
+            // Options which only turn out to be invalid once the input is read, such as a missing column name
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
 
-    public static void main(String... args){
-        List<String> inputList = readInputFile();
-        displayOutput(EmailListAnalytics.listDomainsByCount(inputList, 10));
+    static void run(CommandLineOptions options, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        long startTime = System.nanoTime();
+        Throughput throughput = new Throughput(in);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        switch (options.operation) {
+            case VALIDATE:
+                if (options.format == CommandLineOptions.Format.TEXT)
+                    filter(options, throughput, out);
+                else
+                    validate(options, throughput, new ResultWriter(writer, options.format,
+                            options.column != null && options.emit != FilterOutput.NORMALIZED ? "record" : "email"));
+                break;
+            case DEDUPE:
+                dedupe(options, throughput, new ResultWriter(writer, options.format, "email"));
+                break;
+            case DOMAINS:
+                writeDomains(countDomains(options, throughput).getTopDomains(null),
+                        new ResultWriter(writer, options.format, "domain", "count"));
+                break;
+            default:
+                writeDomains(countDomains(options, throughput).getTopDomains(options.top),
+                        new ResultWriter(writer, options.format, "domain", "count"));
+        }
+        if (!options.quiet)
+            err.println(throughput.summary(System.nanoTime() - startTime));
+    }
 
+    /**
+     * Validates text lines as bytes, straight from each input to the output, without decoding them beyond any gzip
+     * compression.
+     */
+    private static void filter(CommandLineOptions options, Throughput throughput, OutputStream out) throws IOException {
+        EmailLineFilter filter = new EmailLineFilter(options.validation, options.parser, options.emit)
+                .setColumn(options.column);
+        if (options.inputs.isEmpty())
+            filter.filter(CompressedInput.decompress(throughput.standardInput), out);
+        for (Path input : options.inputs) {
+            if (input == null) {
+                filter.filter(CompressedInput.decompress(throughput.standardInput), out);
+                continue;
+            }
+            throughput.bytes += Files.size(input);
+            try (InputStream file = CompressedInput.open(input)) {
+                filter.filter(file, out);
+            }
+        }
+        throughput.rows += filter.getLinesRead();
     }
 
-    private static void displayOutput(List<String> output) {
-        for (String domain : output) {
-            System.out.println(domain);
+    /**
+     * Validates each line, or the column of each record, writing accepted or rejected lines as they were read, as
+     * {@link #filter} does for text output.
+     */
+    private static void validate(CommandLineOptions options, Throughput throughput, ResultWriter results) throws IOException {
+        EmailParser parser = new EmailParser(options.validation, options.parser);
+        EmailContext email = new EmailContext();
+        try (Stream<Record> records = throughput.records(options)) {
+            Iterator<Record> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                boolean valid = parser.parse(record.address, email).isValid();
+                if (options.emit == FilterOutput.NORMALIZED) {
+                    if (valid) results.row(email.getParsedEmailAddress());
+                } else if (valid == (options.emit == FilterOutput.ACCEPTED))
+                    results.row(record.line);
+            }
         }
+        results.finish();
     }
 
-    private static List<String> readInputFile() {
-        List<String> fileList = new ArrayList<>();
+    private static void dedupe(CommandLineOptions options, Throughput throughput, ResultWriter results) throws IOException {
+        EmailListContext context = EmailListContext.fromStream(throughput.lines(options), options.validation, options.parser);
+        try (Stream<String> deduplicated = context.streamValidDeduplicate(options.memoryBudget)) {
+            Iterator<String> iterator = deduplicated.iterator();
+            while (iterator.hasNext()) results.row(iterator.next());
+        }
+        results.finish();
+    }
+
+    /**
+     * Counts domains across every input. Plain files are memory-mapped and read in parallel, while gzip-compressed files
+     * and standard input are read and decompressed on one thread and parsed on the others.
+     */
+    private static DomainCounter countDomains(CommandLineOptions options, Throughput throughput) throws IOException {
+        DomainCounter domains = new DomainCounter();
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
         try {
-            FileReader reader = new FileReader(INPUT_FILE);
-            BufferedReader bufferedReader = new BufferedReader(reader);
-            String line;
-            while((line = bufferedReader.readLine()) != null) {
-                fileList.add(line);
+            for (Path input : options.inputs) {
+                if (input == null)
+                    continue;
+                throughput.bytes += Files.size(input);
+                RowCount fileDomains = CompressedInput.isCompressed(input)
+                        ? PipelinedEmailReader.fromFile(input, options.validation, options.parser).setColumn(options.column)
+                                .process(options.threads, RowCount::new, RowCount::add, RowCount::merge)
+                        : new MappedEmailFile(input, options.validation, options.parser).setColumn(options.column)
+                                .process(pool, RowCount::new, RowCount::add, RowCount::merge);
+                throughput.rows += fileDomains.rows;
+                domains.merge(fileDomains.domains);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (options.inputs.isEmpty() || options.inputs.contains(null)) {
+            RowCount inputDomains = new PipelinedEmailReader(throughput.standardInput, options.validation, options.parser)
+                    .setColumn(options.column)
+                    .process(options.threads, RowCount::new, RowCount::add, RowCount::merge);
+            throughput.rows += inputDomains.rows;
+            domains.merge(inputDomains.domains);
+        }
+        return domains;
+    }
+
+    private static void writeDomains(Iterable<DomainCount> domains, ResultWriter results) throws IOException {
+        for (DomainCount domain : domains) results.row(domain.getDomain(), domain.getCount());
+        results.finish();
+    }
+
+    /**
+     * Domain counts for a section of a file, along with the number of lines read.
+     */
+    private static class RowCount {
+
+        private final DomainCounter domains = new DomainCounter();
+        private long rows;
+
+        void add(ParsedEmail parsedEmail) {
+            rows++;
+            domains.addParsedEmail(parsedEmail);
+        }
+
+        RowCount merge(RowCount other) {
+            rows += other.rows;
+            domains.merge(other.domains);
+            return this;
+        }
+    }
+
+    /**
+     * A line read from an input, along with the address read from it, which is the whole line unless a column is
+     * chosen.
+     */
+    private static class Record {
+
+        private final String line;
+        private final String address;
+
+        Record(String line, String address) {
+            this.line = line;
+            this.address = address;
+        }
+    }
+
+    /**
+     * Counts the rows and bytes read from the inputs.
+     */
+    private static class Throughput {
+
+        private final CountingInputStream standardInput;
+        private long rows;
+        private long bytes;
+
+        Throughput(InputStream in) {
+            this.standardInput = new CountingInputStream(in);
+        }
+
+        /**
+         * Returns the lines of every input in order, or the values of the chosen column of each, decompressing any
+         * gzip-compressed input and counting the lines as they are read.
+         */
+        Stream<String> lines(CommandLineOptions options) throws IOException {
+            return lines(options, (line, address) -> address);
+        }
+
+        /**
+         * Returns every line of the inputs as it was read, along with the address read from it, as in {@link #lines}.
+         */
+        Stream<Record> records(CommandLineOptions options) throws IOException {
+            return lines(options, Record::new);
+        }
+
+        private <T> Stream<T> lines(CommandLineOptions options, BiFunction<String, String, T> combine) throws IOException {
+            if (options.inputs.isEmpty())
+                return standardInputLines(options.column, combine);
+            for (Path input : options.inputs) {
+                if (input != null) bytes += Files.size(input);
+            }
+            return options.inputs.stream().flatMap(input -> {
+                if (input == null)
+                    return standardInputLines(options.column, combine);
+                try {
+                    BufferedReader reader = reader(CompressedInput.open(input));
+                    return count(reader.lines(), options.column, combine).onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        private <T> Stream<T> standardInputLines(DelimitedColumn column, BiFunction<String, String, T> combine) {
+            try {
+                return count(reader(CompressedInput.decompress(standardInput)).lines(), column, combine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            return fileList;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        }
+
+        private <T> Stream<T> count(Stream<String> lines, DelimitedColumn column, BiFunction<String, String, T> combine) {
+            return (column == null ? lines.map(line -> combine.apply(line, line)) : column.records(lines, combine))
+                    .peek(line -> rows++);
+        }
+
+        private static BufferedReader reader(InputStream in) {
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        }
+
+        String summary(long elapsedNanos) {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            double megabytes = (bytes + standardInput.count) / (1024.0 * 1024.0);
+            return String.format("Read %,d rows (%.1f MB) in %.2f s: %,.0f rows/s, %.1f MB/s",
+                    rows, megabytes, seconds, rows / seconds, megabytes / seconds);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
         }
     }
 
@@ -1,26 +1,31 @@
 package emails;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import emails.analysis.DomainAnalysis;
+import emails.analysis.DomainCount;
+import emails.analysis.DomainCounter;
 import emails.analysis.EmailAddressAnalysis;
-import emails.constants.EmailListOrder;
+import emails.processors.CompressedInput;
 import emails.processors.EmailListContext;
 import emails.processors.EmailParserConfig;
+import emails.processors.MappedEmailFile;
+import emails.processors.PipelinedEmailReader;
 import emails.processors.EmailValidationConfig;
 
 public class EmailListAnalytics {
 
     public static int countUniqueDomains(Collection<String> emailAddresses) {
-        return analyseDomains(emailAddresses, EmailValidationConfig.generic(), EmailParserConfig.standard()).size();
+        return countDomains(emailAddresses).size();
     }
 
     public static List<String> listDomains(Collection<String> emailAddresses) {
-        return analyseDomains(emailAddresses, EmailValidationConfig.generic(),
-                EmailParserConfig.custom().setListOrder(EmailListOrder.DOMAIN_ALPHABETICAL).build())
-                .stream().map(DomainAnalysis::getDomain).collect(Collectors.toList());
+        return countDomains(emailAddresses).getDomains();
     }
 
     /**
@@ -36,9 +41,46 @@ public class EmailListAnalytics {
      * the occurrence count appearing after the domain, separated by a space.
      */
     public static List<String> listDomainsByCount(Collection<String> emailAddresses, Integer maxResults) {
-        return analyseDomains(emailAddresses, EmailValidationConfig.generic(),
-                EmailParserConfig.custom().setListOrder(EmailListOrder.OCCURRENCES).setMaxResults(maxResults).build())
-                .stream().map(d -> String.format("%s %d", d.getDomain(), d.getTotalEmailAddressCount())).collect(Collectors.toList());
+        return formatDomainCounts(countDomains(emailAddresses).getTopDomains(maxResults));
+    }
+
+    /**
+     * List the domains included in the email addresses in the supplied file, one per line, by the number of
+     * occurrences of the domains, with the occurrence count appearing after the domain, separated by a space. The file
+     * is memory-mapped in chunks which are parsed in parallel, rather than being loaded into memory. A gzip-compressed
+     * file is decompressed on one thread while its lines are parsed on the others.
+     */
+    public static List<String> listDomainsByCountFromFile(Path inputFile, Integer maxResults) {
+        DomainCounter domains;
+        try {
+            domains = CompressedInput.isCompressed(inputFile)
+                    ? PipelinedEmailReader.fromFile(inputFile, EmailValidationConfig.generic(), null)
+                            .countDomains(Runtime.getRuntime().availableProcessors())
+                    : new MappedEmailFile(inputFile, EmailValidationConfig.generic(), null).countDomains();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return formatDomainCounts(domains.getTopDomains(maxResults));
+    }
+
+    /**
+     * List the most frequent domains included in the supplied email address list with their estimated occurrence
+     * counts, in the same format as {@link #listDomainsByCount(Collection, Integer)}. Only the given number of domains
+     * are counted at a time, so memory use is fixed however many distinct domains there are. Counts are never below
+     * the true count, and a higher capacity makes them more accurate.
+     */
+    public static List<String> listDomainsByEstimatedCount(Collection<String> emailAddresses, int maxResults, int capacity) {
+        return new EmailListContext(emailAddresses, EmailValidationConfig.generic(), null).findHeavyDomains(capacity)
+                .getTopResults(maxResults).stream()
+                .map(d -> String.format("%s %d", d.getValue(), d.getCount())).collect(Collectors.toList());
+    }
+
+    private static DomainCounter countDomains(Collection<String> emailAddresses) {
+        return new EmailListContext(emailAddresses, EmailValidationConfig.generic(), null).countDomains();
+    }
+
+    private static List<String> formatDomainCounts(List<DomainCount> domains) {
+        return domains.stream().map(DomainCount::toString).collect(Collectors.toList());
     }
 
     /**
@@ -2,6 +2,7 @@ package emails;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 import emails.processors.EmailListContext;
 import emails.processors.EmailParserConfig;
@@ -50,6 +51,28 @@ public class EmailListUtils {
         return new EmailListContext(emails, validator, parser).getValidDeduplicate();
     }
 
+    /**
+     * Returns the emails in the supplied stream with any invalid or duplicate entries filtered out, applying the
+     * criteria in the supplied configuration. Lists too large for memory are sorted through temporary files once the
+     * memory budget in bytes is used, so the returned stream must be closed to delete them.
+     */
+    public static Stream<String> deduplicateEmails(Stream<String> emails, EmailValidationConfig validator, EmailParserConfig parser,
+                                                   long memoryBudget) {
+        return EmailListContext.fromStream(emails, validator, parser).streamValidDeduplicate(memoryBudget);
+    }
+
+    /**
+     * Returns the emails in the supplied stream with any invalid or duplicate entries filtered out, in the order they
+     * first appear, using a fixed amount of memory. Unique emails are wrongly filtered out as duplicates at about the
+     * given false positive rate, as long as there are no more than the expected number of unique emails.
+     */
+    public static Stream<String> deduplicateEmailsApproximately(Stream<String> emails, EmailValidationConfig validator,
+                                                                EmailParserConfig parser, long expectedEmails,
+                                                                double falsePositiveRate) {
+        return EmailListContext.fromStream(emails, validator, parser)
+                .streamApproximateDeduplicate(expectedEmails, falsePositiveRate);
+    }
+
     /**
      * Returns a list of only the emails in the supplied list determined to be valid. Any valid duplicates will be
      * preserved.
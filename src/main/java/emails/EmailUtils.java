@@ -2,13 +2,29 @@ package emails;
 
 import emails.constants.InvalidReason;
 import emails.processors.EmailContext;
+import emails.processors.EmailParser;
 import emails.processors.EmailParserConfig;
 import emails.processors.EmailValidationConfig;
 
 public class EmailUtils {
 
+    private static final EmailParserConfig STRIP_PARSER = EmailParserConfig.custom()
+            .includeSubAddresses(false).setCaseSensitive(false).build();
+    private static final EmailParserConfig REMOVE_SUB_ADDRESS_PARSER = EmailParserConfig.custom()
+            .includeSubAddresses(false).build();
+
+    private static final ThreadLocal<EmailContext> threadResult = ThreadLocal.withInitial(EmailContext::new);
+
+    /**
+     * Parses the email address with a parser and result reused by the calling thread. The result is only valid until
+     * the next call on the same thread, so it must not be returned from this class.
+     */
+    private static EmailContext parse(String emailAddress, EmailValidationConfig validator, EmailParserConfig parser) {
+        return EmailParser.forCurrentThread(validator, parser).parse(emailAddress, threadResult.get());
+    }
+
     public static boolean isValid(String emailAddress, EmailValidationConfig config) {
-        return new EmailContext(emailAddress, config, EmailParserConfig.standard()).isValid();
+        return parse(emailAddress, config, EmailParserConfig.standard()).isValid();
     }
 
     public static boolean isValid(String emailAddress) {
@@ -28,31 +44,30 @@ public class EmailUtils {
     }
 
     public static InvalidReason invalidReason(String emailAddress, EmailValidationConfig config) {
-        return new EmailContext(emailAddress, config, EmailParserConfig.standard()).invalidReason();
+        return parse(emailAddress, config, EmailParserConfig.standard()).invalidReason();
     }
 
     public static boolean hasSubAddress(String emailAddress) {
-        return new EmailContext(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasSubAddress();
+        return parse(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasSubAddress();
     }
 
     public static boolean hasQuotes(String emailAddress) {
-        return new EmailContext(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasQuotes();
+        return parse(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasQuotes();
     }
 
     public static boolean hasComments(String emailAddress) {
-        return new EmailContext(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasComments();
+        return parse(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasComments();
     }
 
     public static boolean hasDots(String emailAddress) {
-        return new EmailContext(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasDots();
+        return parse(emailAddress, EmailValidationConfig.strict(), EmailParserConfig.standard()).hasDots();
     }
 
     /**
      * Removes comments and sub-addresses from the supplied email address and converts the local-part to lower case.
      */
     public static String strip(String emailAddress) {
-        String parsed = new EmailContext(emailAddress, EmailValidationConfig.strict(),
-                EmailParserConfig.custom().includeSubAddresses(false).setCaseSensitive(false).build())
+        String parsed = parse(emailAddress, EmailValidationConfig.strict(), STRIP_PARSER)
                 .getParsedEmailAddress();
         return parsed == null ? emailAddress : parsed;
     }
@@ -61,8 +76,7 @@ public class EmailUtils {
      * Removes any sub-address and comments from the supplied email address, but preserves the local-part case.
      */
     public static String removeSubAddress(String emailAddress) {
-        String parsed = new EmailContext(emailAddress, EmailValidationConfig.strict(),
-                EmailParserConfig.custom().includeSubAddresses(false).build())
+        String parsed = parse(emailAddress, EmailValidationConfig.strict(), REMOVE_SUB_ADDRESS_PARSER)
                 .getParsedEmailAddress();
         return parsed == null ? emailAddress : parsed;
     }
@@ -71,7 +85,7 @@ public class EmailUtils {
      * Removes any comments from the supplied email address, but preserves any sub-address and the local-part case.
      */
     public static String removeComments(String emailAddress) {
-        return new EmailContext(emailAddress, EmailValidationConfig.strict(), null).getParsedEmailAddress();
+        return parse(emailAddress, EmailValidationConfig.strict(), null).getParsedEmailAddress();
     }
 
 }
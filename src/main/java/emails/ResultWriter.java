@@ -0,0 +1,96 @@
+package emails;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the rows of a command line result in one of the output formats. Text rows are written with their values
+ * separated by spaces, CSV rows follow a header of the column names, and JSON is written as an array, of strings for a
+ * single column or of objects otherwise.
+ */
+final class ResultWriter {
+
+    private final Writer out;
+    private final CommandLineOptions.Format format;
+    private final String[] columns;
+    private boolean first = true;
+
+    ResultWriter(Writer out, CommandLineOptions.Format format, String... columns) throws IOException {
+        this.out = out;
+        this.format = format;
+        this.columns = columns;
+        if (format == CommandLineOptions.Format.CSV)
+            writeCsv(columns);
+        else if (format == CommandLineOptions.Format.JSON)
+            out.write('[');
+    }
+
+    void row(Object... values) throws IOException {
+        switch (format) {
+            case CSV:
+                writeCsv(values);
+                break;
+            case JSON:
+                out.write(first ? "\n  " : ",\n  ");
+                if (columns.length == 1)
+                    writeJson(values[0]);
+                else {
+                    out.write('{');
+                    for (int i = 0; i < columns.length; i++) {
+                        if (i > 0) out.write(", ");
+                        writeJson(columns[i]);
+                        out.write(": ");
+                        writeJson(values[i]);
+                    }
+                    out.write('}');
+                }
+                break;
+            default:
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) out.write(' ');
+                    out.write(String.valueOf(values[i]));
+                }
+                out.write('\n');
+        }
+        first = false;
+    }
+
+    /**
+     * Finishes the result and flushes it, without closing the underlying writer.
+     */
+    void finish() throws IOException {
+        if (format == CommandLineOptions.Format.JSON)
+            out.write(first ? "]\n" : "\n]\n");
+        out.flush();
+    }
+
+    private void writeCsv(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.write(',');
+            String value = String.valueOf(values[i]);
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0)
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            out.write(value);
+        }
+        out.write('\n');
+    }
+
+    private void writeJson(Object value) throws IOException {
+        if (value instanceof Number) {
+            out.write(value.toString());
+            return;
+        }
+        String text = String.valueOf(value);
+        out.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                out.write('\\');
+            if (c < 0x20)
+                out.write(String.format("\\u%04x", (int) c));
+            else
+                out.write(c);
+        }
+        out.write('"');
+    }
+}
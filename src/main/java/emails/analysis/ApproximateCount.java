@@ -0,0 +1,41 @@
+package emails.analysis;
+
+/**
+ * An estimated count along with its expected error. The bounds are two standard errors either side of the estimate,
+ * so the true count is within them about 95% of the time.
+ */
+public class ApproximateCount {
+
+    private final long estimate;
+    private final double relativeError;
+
+    public ApproximateCount(long estimate, double relativeError) {
+        this.estimate = estimate;
+        this.relativeError = relativeError;
+    }
+
+    public long getEstimate() {
+        return estimate;
+    }
+
+    /**
+     * Returns the standard error of the estimate as a fraction of the estimate, or 0 if the count is exact.
+     */
+    public double getRelativeError() {
+        return relativeError;
+    }
+
+    public long getLowerBound() {
+        return Math.max(0, (long) Math.floor(estimate * (1 - 2 * relativeError)));
+    }
+
+    public long getUpperBound() {
+        return (long) Math.ceil(estimate * (1 + 2 * relativeError));
+    }
+
+    @Override
+    public String toString() {
+        return relativeError == 0 ? Long.toString(estimate)
+                : String.format("%d (%d-%d)", estimate, getLowerBound(), getUpperBound());
+    }
+}
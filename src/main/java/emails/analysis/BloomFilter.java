@@ -0,0 +1,69 @@
+package emails.analysis;
+
+/**
+ * A set of strings which can only say whether a string is definitely new or has possibly been added before, using a
+ * fixed number of bits for each expected string. Strings which have been added are always reported as possibly added,
+ * while strings which haven't are wrongly reported as possibly added at about the false positive rate the filter was
+ * sized for, as long as no more than the expected number of strings are added.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final double falsePositiveRate;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0)
+            throw new IllegalArgumentException("Expected insertions must be positive");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        long bitCount = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bitCount + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / expectedInsertions * Math.log(2)));
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Adds the value, returning true if it definitely hadn't been added before, or false if it possibly had.
+     */
+    public boolean put(CharSequence value) {
+        long hash = Hashing.hash64(value);
+        long hash1 = hash & 0xFFFFFFFFL;
+        long hash2 = hash >>> 32;
+        boolean added = false;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            long mask = 1L << index;
+            int word = (int) (index >>> 6);
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns false if the value has definitely not been added, or true if it possibly has.
+     */
+    public boolean mightContain(CharSequence value) {
+        long hash = Hashing.hash64(value);
+        long hash1 = hash & 0xFFFFFFFFL;
+        long hash2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (index >>> 6)] & 1L << index) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the false positive rate the filter was sized for.
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+}
@@ -1,26 +1,86 @@
 package emails.analysis;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import emails.constants.DomainRetention;
 import emails.constants.EmailListOrder;
 
 /**
  * The results of analysis of a single domain. This is implicitly expected to contain the results from several email
  * addresses, so while there is a single domain there may be multiple total local parts and unique local parts.
+ *
+ * Only counts and the unique local parts and sub-addresses are kept by default, so memory use depends on the number of
+ * distinct values rather than the number of email addresses. Every local part and sub-address can be kept instead
+ * with {@link DomainRetention#FULL}, or only counts with {@link DomainRetention#COUNTS}. With
+ * {@link DomainRetention#APPROXIMATE} the unique counts are estimated by {@link HyperLogLog} sketches of a fixed size.
+ *
+ * Email addresses can only be removed again from an analysis created as removable, which counts the email addresses
+ * with each unique value so values can be forgotten, and not when unique counts are approximate, as sketches can't
+ * forget values.
  */
 public class DomainAnalysis {
 
     private boolean valid;
     private String domain;
-    private List<String> totalLocalParts = new ArrayList<>();
-    private Set<String> uniqueLocalParts = new HashSet<>();
-    private List<String> totalSubAddresses = new ArrayList<>();
-    private Set<String> uniqueSubAddresses = new HashSet<>();
+    private final DomainRetention retention;
+    private final boolean removable;
+
+    private int totalEmailAddressCount;
+    private int totalSubAddressCount;
+    private Set<String> uniqueLocalParts;
+    private Set<String> uniqueSubAddresses;
+    // Number of email addresses with each unique value, kept instead of the unique values when removable
+    private Map<String, Integer> localPartCounts;
+    private Map<String, Integer> subAddressCounts;
+    private List<String> totalLocalParts;
+    private List<String> totalSubAddresses;
+    private HyperLogLog localPartSketch;
+    private HyperLogLog subAddressSketch;
 
     public DomainAnalysis(ParsedEmail parsedEmail) {
+        this(parsedEmail, DomainRetention.UNIQUE);
+    }
+
+    public DomainAnalysis(ParsedEmail parsedEmail, DomainRetention retention) {
+        this(parsedEmail, retention, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an analysis keeping the given amount of each email address. The precision sets the size of the
+     * sketches used when unique counts are approximate, and is otherwise ignored.
+     */
+    public DomainAnalysis(ParsedEmail parsedEmail, DomainRetention retention, int approximatePrecision) {
+        this(parsedEmail, retention, approximatePrecision, false);
+    }
+
+    /**
+     * Creates an analysis as above, which email addresses can also be removed from if it is removable.
+     */
+    public DomainAnalysis(ParsedEmail parsedEmail, DomainRetention retention, int approximatePrecision,
+                          boolean removable) {
+        this.retention = retention == null ? DomainRetention.UNIQUE : retention;
+        this.removable = removable;
+        if (this.retention == DomainRetention.APPROXIMATE) {
+            localPartSketch = new HyperLogLog(approximatePrecision);
+            subAddressSketch = new HyperLogLog(approximatePrecision);
+        } else if (this.retention != DomainRetention.COUNTS && removable) {
+            localPartCounts = new HashMap<>();
+            subAddressCounts = new HashMap<>();
+        } else if (this.retention != DomainRetention.COUNTS) {
+            uniqueLocalParts = new HashSet<>();
+            uniqueSubAddresses = new HashSet<>();
+        }
+        if (this.retention == DomainRetention.FULL) {
+            totalLocalParts = new ArrayList<>();
+            totalSubAddresses = new ArrayList<>();
+        }
         this.valid = parsedEmail != null && parsedEmail.isValid();
         if (valid) {
             domain = parsedEmail.getDomain();
@@ -31,32 +91,192 @@ public class DomainAnalysis {
 
     public void addParsedEmail(ParsedEmail parsedEmail) {
         if (valid && parsedEmail.isValid() && domain.equals(parsedEmail.getDomain())) {
-            totalLocalParts.add(parsedEmail.getParsedLocalPart());
-            uniqueLocalParts.add(parsedEmail.getParsedLocalPart());
+            totalEmailAddressCount++;
+            if (uniqueLocalParts != null)
+                uniqueLocalParts.add(parsedEmail.getParsedLocalPart());
+            if (localPartCounts != null)
+                localPartCounts.merge(parsedEmail.getParsedLocalPart(), 1, Integer::sum);
+            if (totalLocalParts != null)
+                totalLocalParts.add(parsedEmail.getParsedLocalPart());
+            if (localPartSketch != null)
+                localPartSketch.add(parsedEmail.getParsedLocalPart());
             if (parsedEmail.hasSubAddress()) {
-                totalSubAddresses.add(parsedEmail.getSubAddress());
-                uniqueSubAddresses.add(parsedEmail.getSubAddress());
+                totalSubAddressCount++;
+                if (uniqueSubAddresses != null)
+                    uniqueSubAddresses.add(parsedEmail.getSubAddress());
+                if (subAddressCounts != null)
+                    subAddressCounts.merge(parsedEmail.getSubAddress(), 1, Integer::sum);
+                if (totalSubAddresses != null)
+                    totalSubAddresses.add(parsedEmail.getSubAddress());
+                if (subAddressSketch != null)
+                    subAddressSketch.add(parsedEmail.getSubAddress());
+            }
+        }
+    }
+
+    /**
+     * Removes an email address previously added to this analysis. Local parts and sub-addresses are only forgotten
+     * once no remaining email address uses them. Removing from every local part kept by {@link DomainRetention#FULL}
+     * takes time in proportion to the number kept.
+     *
+     * @throws UnsupportedOperationException if the analysis isn't removable or unique counts are approximate
+     */
+    public void removeParsedEmail(ParsedEmail parsedEmail) {
+        if (!removable)
+            throw new UnsupportedOperationException("Email addresses can only be removed from a removable analysis");
+        if (retention == DomainRetention.APPROXIMATE)
+            throw new UnsupportedOperationException("Email addresses can't be removed from approximate unique counts");
+        if (valid && parsedEmail.isValid() && domain.equals(parsedEmail.getDomain()) && totalEmailAddressCount > 0) {
+            totalEmailAddressCount--;
+            if (localPartCounts != null)
+                localPartCounts.computeIfPresent(parsedEmail.getParsedLocalPart(), (k, count) -> count > 1 ? count - 1 : null);
+            if (totalLocalParts != null)
+                totalLocalParts.remove(parsedEmail.getParsedLocalPart());
+            if (parsedEmail.hasSubAddress() && totalSubAddressCount > 0) {
+                totalSubAddressCount--;
+                if (subAddressCounts != null)
+                    subAddressCounts.computeIfPresent(parsedEmail.getSubAddress(), (k, count) -> count > 1 ? count - 1 : null);
+                if (totalSubAddresses != null)
+                    totalSubAddresses.remove(parsedEmail.getSubAddress());
             }
         }
     }
 
+    /**
+     * Adds the results of another analysis of the same domain to this one, as if its email addresses had been added
+     * after those already in this analysis. Values are only kept if both analyses kept them.
+     */
+    public void merge(DomainAnalysis other) {
+        if (valid && other.valid && domain.equals(other.domain)) {
+            totalEmailAddressCount += other.totalEmailAddressCount;
+            totalSubAddressCount += other.totalSubAddressCount;
+            uniqueLocalParts = mergeValues(uniqueLocalParts, other.uniqueLocalParts);
+            uniqueSubAddresses = mergeValues(uniqueSubAddresses, other.uniqueSubAddresses);
+            localPartCounts = mergeCounts(localPartCounts, other.localPartCounts);
+            subAddressCounts = mergeCounts(subAddressCounts, other.subAddressCounts);
+            totalLocalParts = mergeValues(totalLocalParts, other.totalLocalParts);
+            totalSubAddresses = mergeValues(totalSubAddresses, other.totalSubAddresses);
+            localPartSketch = mergeSketches(localPartSketch, other.localPartSketch);
+            subAddressSketch = mergeSketches(subAddressSketch, other.subAddressSketch);
+        }
+    }
+
+    private static HyperLogLog mergeSketches(HyperLogLog sketch, HyperLogLog otherSketch) {
+        if (sketch == null || otherSketch == null)
+            return null;
+        sketch.merge(otherSketch);
+        return sketch;
+    }
+
+    private static Map<String, Integer> mergeCounts(Map<String, Integer> counts, Map<String, Integer> otherCounts) {
+        if (counts == null || otherCounts == null)
+            return null;
+        otherCounts.forEach((value, count) -> counts.merge(value, count, Integer::sum));
+        return counts;
+    }
+
+    private static <T extends Collection<String>> T mergeValues(T values, T otherValues) {
+        if (values == null || otherValues == null)
+            return null;
+        values.addAll(otherValues);
+        return values;
+    }
+
     public String getDomain() {
         return domain;
     }
 
+    public DomainRetention getRetention() {
+        return retention;
+    }
+
     /**
      * Returns the total number of email addresses attached to this domain, including duplicates.
      */
     public int getTotalEmailAddressCount() {
-        return totalLocalParts.size();
+        return totalEmailAddressCount;
     }
 
     /**
      * Returns the number of unique email addresses attached to this domain based on parsing rules. Adjust parsing
-     * config to control if this includes case sensitivity, comments, or sub-addresses.
+     * config to control if this includes case sensitivity, comments, or sub-addresses. This is an estimate if unique
+     * counts are approximate, and -1 if unique local parts aren't kept.
      */
     public int getUniqueEmailAddressCount() {
-        return uniqueLocalParts.size();
+        ApproximateCount count = getUniqueEmailAddressCountEstimate();
+        return count == null ? -1 : (int) count.getEstimate();
+    }
+
+    /**
+     * Returns the number of unique email addresses attached to this domain along with its expected error, which is
+     * zero unless unique counts are approximate. Returns null if unique local parts aren't kept.
+     */
+    public ApproximateCount getUniqueEmailAddressCountEstimate() {
+        return countUnique(uniqueLocalParts != null ? uniqueLocalParts : keys(localPartCounts), localPartSketch);
+    }
+
+    /**
+     * Returns the total number of email addresses attached to this domain with a sub-address, including duplicates.
+     */
+    public int getTotalSubAddressCount() {
+        return totalSubAddressCount;
+    }
+
+    /**
+     * Returns the number of unique sub-addresses used with this domain. This is an estimate if unique counts are
+     * approximate, and -1 if unique sub-addresses aren't kept.
+     */
+    public int getUniqueSubAddressCount() {
+        ApproximateCount count = getUniqueSubAddressCountEstimate();
+        return count == null ? -1 : (int) count.getEstimate();
+    }
+
+    /**
+     * Returns the number of unique sub-addresses used with this domain along with its expected error, which is zero
+     * unless unique counts are approximate. Returns null if unique sub-addresses aren't kept.
+     */
+    public ApproximateCount getUniqueSubAddressCountEstimate() {
+        return countUnique(uniqueSubAddresses != null ? uniqueSubAddresses : keys(subAddressCounts), subAddressSketch);
+    }
+
+    private static Set<String> keys(Map<String, Integer> counts) {
+        return counts == null ? null : counts.keySet();
+    }
+
+    private static ApproximateCount countUnique(Set<String> values, HyperLogLog sketch) {
+        if (values != null)
+            return new ApproximateCount(values.size(), 0);
+        return sketch == null ? null : sketch.count();
+    }
+
+    /**
+     * Returns the sketch of unique local parts if unique counts are approximate, or null otherwise. Sketches can be
+     * saved and merged with those for the same domain from other lists.
+     */
+    public HyperLogLog getLocalPartSketch() {
+        return localPartSketch;
+    }
+
+    /**
+     * Returns the sketch of unique sub-addresses if unique counts are approximate, or null otherwise.
+     */
+    public HyperLogLog getSubAddressSketch() {
+        return subAddressSketch;
+    }
+
+    /**
+     * Returns the local part of every email address attached to this domain in the order they were added, or null if
+     * they aren't kept.
+     */
+    public List<String> getLocalParts() {
+        return totalLocalParts == null ? null : Collections.unmodifiableList(totalLocalParts);
+    }
+
+    /**
+     * Returns every sub-address used with this domain in the order they were added, or null if they aren't kept.
+     */
+    public List<String> getSubAddresses() {
+        return totalSubAddresses == null ? null : Collections.unmodifiableList(totalSubAddresses);
     }
 
 
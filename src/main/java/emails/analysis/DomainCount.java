@@ -0,0 +1,37 @@
+package emails.analysis;
+
+import java.util.Comparator;
+
+/**
+ * The number of email addresses counted with a domain.
+ */
+public class DomainCount {
+
+    // Highest count first, then alphabetically, as domains are ordered by occurrences
+    static final Comparator<DomainCount> COUNT_ORDER = Comparator.<DomainCount>comparingLong(d -> -d.count)
+            .thenComparing(d -> d.domain);
+
+    private final String domain;
+    private final long count;
+
+    DomainCount(String domain, long count) {
+        this.domain = domain;
+        this.count = count;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the domain followed by its count, separated by a space.
+     */
+    @Override
+    public String toString() {
+        return domain + " " + count;
+    }
+}
@@ -0,0 +1,162 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts the email addresses of each domain when nothing else about them is needed. Domains are kept in an
+ * open-addressing table, with their hashes and counts in parallel arrays beside them, so counting an address takes a
+ * single probe of the table and holds no entry or analysis object for each domain.
+ *
+ * Domains can be counted from any characters, such as a view of the parsed input, and a string is only created the
+ * first time each domain is seen.
+ */
+public class DomainCounter {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] domains;
+    private int[] hashes;
+    private int[] counts;
+    private int size;
+    private long totalCount;
+
+    public DomainCounter() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Creates a counter with room for the expected number of domains before it needs to grow.
+     */
+    public DomainCounter(int expectedDomains) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedDomains * 2L && capacity < 1 << 30) capacity <<= 1;
+        domains = new String[capacity];
+        hashes = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Counts the domain of the email address if it is valid.
+     */
+    public void addParsedEmail(ParsedEmail parsedEmail) {
+        if (parsedEmail != null && parsedEmail.isValid())
+            add(parsedEmail.getDomainCharacters(), 1);
+    }
+
+    public void add(CharSequence domain) {
+        add(domain, 1);
+    }
+
+    private void add(CharSequence domain, int count) {
+        int hash = hash(domain);
+        int mask = domains.length - 1;
+        int index = hash & mask;
+        totalCount += count;
+        for (String existing; (existing = domains[index]) != null; index = (index + 1) & mask) {
+            if (hashes[index] == hash && existing.contentEquals(domain)) {
+                counts[index] += count;
+                return;
+            }
+        }
+        domains[index] = domain.toString();
+        hashes[index] = hash;
+        counts[index] = count;
+        // The table is grown once it is more than half full, which keeps probe sequences short
+        if (++size * 2 > domains.length)
+            grow();
+    }
+
+    /**
+     * Adds the counts of another counter to this one.
+     */
+    public void merge(DomainCounter other) {
+        for (int i = 0; i < other.domains.length; i++) {
+            if (other.domains[i] != null) add(other.domains[i], other.counts[i]);
+        }
+    }
+
+    // The same as String.hashCode, so strings and other characters hash alike, with the bits spread for the table
+    private static int hash(CharSequence domain) {
+        int hash = 0;
+        if (domain instanceof String)
+            hash = domain.hashCode();
+        else {
+            for (int i = 0; i < domain.length(); i++) hash = 31 * hash + domain.charAt(i);
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        String[] oldDomains = domains;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        domains = new String[oldDomains.length * 2];
+        hashes = new int[domains.length];
+        counts = new int[domains.length];
+        int mask = domains.length - 1;
+        for (int i = 0; i < oldDomains.length; i++) {
+            if (oldDomains[i] == null)
+                continue;
+            int index = oldHashes[i] & mask;
+            while (domains[index] != null) index = (index + 1) & mask;
+            domains[index] = oldDomains[i];
+            hashes[index] = oldHashes[i];
+            counts[index] = oldCounts[i];
+        }
+    }
+
+    /**
+     * Returns the number of email addresses counted for the domain, or 0 if it hasn't been counted.
+     */
+    public int getCount(CharSequence domain) {
+        int hash = hash(domain);
+        int mask = domains.length - 1;
+        for (int index = hash & mask; domains[index] != null; index = (index + 1) & mask) {
+            if (hashes[index] == hash && domains[index].contentEquals(domain))
+                return counts[index];
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of distinct domains counted.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of email addresses counted across all domains.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns every domain counted in alphabetical order.
+     */
+    public List<String> getDomains() {
+        String[] sorted = new String[size];
+        int next = 0;
+        for (String domain : domains) {
+            if (domain != null) sorted[next++] = domain;
+        }
+        Arrays.sort(sorted);
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    /**
+     * Returns the domains with the highest counts, ordered by count and then alphabetically, up to the maximum number
+     * of results if one is given.
+     */
+    public List<DomainCount> getTopDomains(Integer maxResults) {
+        List<DomainCount> results = new ArrayList<>(size);
+        for (int i = 0; i < domains.length; i++) {
+            if (domains[i] != null) results.add(new DomainCount(domains[i], counts[i]));
+        }
+        return TopResults.select(results, DomainCount.COUNT_ORDER, maxResults == null ? size : maxResults, null);
+    }
+}
@@ -1,8 +1,8 @@
 package emails.analysis;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import emails.constants.EmailListOrder;
@@ -10,6 +10,9 @@ import emails.constants.EmailListOrder;
 /**
  * Holds the analysis of an email address signature. The signature will vary based on parsing rules, but any email
  * matching this signature will be added to this analysis object.
+ *
+ * Email addresses can only be removed again from an analysis created as removable, which counts the email addresses
+ * with each distinct value rather than only keeping the values.
  */
 public class EmailAddressAnalysis {
 
@@ -18,11 +21,28 @@ public class EmailAddressAnalysis {
     private String domain;
     private String parsedLocalPart;
     private String parsedEmailAddress;
-    private List<String> rawEmails = new ArrayList<>();
-    private Set<String> distinctRawEmails = new HashSet<>();
-    private Set<String> distinctSubAddresses = new HashSet<>();
+    private int totalCount;
+    private Set<String> distinctRawEmails;
+    private Set<String> distinctSubAddresses;
+    // Number of email addresses with each distinct value, kept instead of the values when removable
+    private Map<String, Integer> rawEmailCounts;
+    private Map<String, Integer> subAddressCounts;
 
     public EmailAddressAnalysis(ParsedEmail parsedEmail) {
+        this(parsedEmail, false);
+    }
+
+    /**
+     * Creates an analysis as above, which email addresses can also be removed from if it is removable.
+     */
+    public EmailAddressAnalysis(ParsedEmail parsedEmail, boolean removable) {
+        if (removable) {
+            rawEmailCounts = new HashMap<>();
+            subAddressCounts = new HashMap<>();
+        } else {
+            distinctRawEmails = new HashSet<>();
+            distinctSubAddresses = new HashSet<>();
+        }
         this.valid = parsedEmail != null && parsedEmail.isValid();
         if (valid) {
             domain = parsedEmail.getDomain();
@@ -37,14 +57,71 @@ public class EmailAddressAnalysis {
 
     public void addParsedEmail(ParsedEmail parsedEmail) {
         if (valid && parsedEmail.isValid() && parsedLocalPart.equals(parsedEmail.getParsedLocalPart())) {
-            rawEmails.add(parsedEmail.getRawEmailAddress());
-            distinctRawEmails.add(parsedEmail.getRawEmailAddress());
-            distinctSubAddresses.add(parsedEmail.getSubAddress());
-            if (parsedEmail.hasSubAddress())
+            totalCount++;
+            if (rawEmailCounts != null) {
+                rawEmailCounts.merge(parsedEmail.getRawEmailAddress(), 1, Integer::sum);
+                subAddressCounts.merge(parsedEmail.getSubAddress(), 1, Integer::sum);
+            } else {
+                distinctRawEmails.add(parsedEmail.getRawEmailAddress());
                 distinctSubAddresses.add(parsedEmail.getSubAddress());
+            }
         }
     }
 
+    /**
+     * Removes an email address previously added to this analysis, returning false if no email address with the same
+     * raw form was added.
+     *
+     * @throws UnsupportedOperationException if the analysis isn't removable
+     */
+    public boolean removeParsedEmail(ParsedEmail parsedEmail) {
+        if (rawEmailCounts == null)
+            throw new UnsupportedOperationException("Email addresses can only be removed from a removable analysis");
+        if (!valid || !parsedEmail.isValid() || !parsedLocalPart.equals(parsedEmail.getParsedLocalPart())
+                || rawEmailCounts.computeIfPresent(parsedEmail.getRawEmailAddress(), (k, count) -> count - 1) == null)
+            return false;
+        rawEmailCounts.remove(parsedEmail.getRawEmailAddress(), 0);
+        subAddressCounts.computeIfPresent(parsedEmail.getSubAddress(), (k, count) -> count > 1 ? count - 1 : null);
+        totalCount--;
+        return true;
+    }
+
+    /**
+     * Adds the results of another analysis of the same email address to this one, as if its email addresses had been
+     * added after those already in this analysis.
+     */
+    public void merge(EmailAddressAnalysis other) {
+        if (valid && other.valid && parsedEmailAddress.equals(other.parsedEmailAddress)) {
+            totalCount += other.totalCount;
+            if (rawEmailCounts != null) {
+                mergeCounts(rawEmailCounts, other.rawEmailCounts, other.rawEmails());
+                mergeCounts(subAddressCounts, other.subAddressCounts, other.subAddresses());
+            } else {
+                distinctRawEmails.addAll(other.rawEmails());
+                distinctSubAddresses.addAll(other.subAddresses());
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another removable analysis, or counts each of its values once if it isn't removable.
+     */
+    private static void mergeCounts(Map<String, Integer> counts, Map<String, Integer> otherCounts,
+                                    Set<String> otherValues) {
+        if (otherCounts != null)
+            otherCounts.forEach((value, count) -> counts.merge(value, count, Integer::sum));
+        else
+            otherValues.forEach(value -> counts.merge(value, 1, Integer::sum));
+    }
+
+    private Set<String> rawEmails() {
+        return distinctRawEmails != null ? distinctRawEmails : rawEmailCounts.keySet();
+    }
+
+    private Set<String> subAddresses() {
+        return distinctSubAddresses != null ? distinctSubAddresses : subAddressCounts.keySet();
+    }
+
     public String getParsedEmailAddress() {
         return parsedEmailAddress;
     }
@@ -58,15 +135,15 @@ public class EmailAddressAnalysis {
     }
 
     public int getTotalCount() {
-        return rawEmails.size();
+        return totalCount;
     }
 
     public int getUniqueVariationCount() {
-        return distinctRawEmails.size();
+        return rawEmails().size();
     }
 
     public int getUniqueSubAddressCount() {
-        return distinctSubAddresses.size();
+        return subAddresses().size();
     }
 
     public int compareTo(EmailAddressAnalysis o, EmailListOrder orderType) {
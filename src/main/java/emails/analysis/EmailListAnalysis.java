@@ -0,0 +1,206 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import emails.constants.DomainRetention;
+import emails.constants.EmailListOrder;
+import emails.constants.EmailListOutput;
+import emails.constants.InvalidReason;
+
+/**
+ * The results of analysis of a list of email addresses, collected as each address is added. Only the outputs chosen
+ * when the analysis is created are collected, so several results can be built from a single pass over a list without
+ * paying for the ones that aren't needed. Getters for outputs which weren't chosen return null.
+ *
+ * When results are ordered by occurrences with a maximum number of results, only that many results are selected
+ * rather than sorting all of them. Other results are sorted by keys read once from each result, in parallel for large
+ * lists.
+ */
+public class EmailListAnalysis {
+
+    private final Set<EmailListOutput> outputs;
+    private final EmailListOrder order;
+    private final Integer maxResults;
+    private final DomainRetention domainRetention;
+    private final int approximatePrecision;
+    private final ForkJoinPool pool;
+
+    private final List<EmailAddressAnalysis> validEmailAddresses;
+    private final Map<String, EmailAddressAnalysis> deduplicatedEmailAddresses;
+    private final Map<String, DomainAnalysis> domains;
+    private final Map<InvalidReason, Integer> invalidReasons;
+    private BloomFilter duplicateFilter;
+
+    public EmailListAnalysis(Collection<EmailListOutput> outputs, EmailListOrder order, Integer maxResults) {
+        this(outputs, order, maxResults, DomainRetention.UNIQUE, HyperLogLog.DEFAULT_PRECISION, null);
+    }
+
+    /**
+     * Creates an analysis which keeps the given amount of each email address in its domain results, using sketches of
+     * the given precision if unique counts are approximate. The threads of the given pool are used when selecting the
+     * results with the most occurrences, for analyses built in parallel whose results are only complete once merged.
+     */
+    public EmailListAnalysis(Collection<EmailListOutput> outputs, EmailListOrder order, Integer maxResults,
+                             DomainRetention domainRetention, int approximatePrecision, ForkJoinPool pool) {
+        this.domainRetention = domainRetention;
+        this.approximatePrecision = approximatePrecision;
+        this.pool = pool;
+        this.outputs = outputs == null || outputs.isEmpty() ? EnumSet.noneOf(EmailListOutput.class) : EnumSet.copyOf(outputs);
+        this.order = order;
+        this.maxResults = maxResults;
+        validEmailAddresses = includes(EmailListOutput.VALID, EmailListOutput.EMAIL_ADDRESSES) ? new ArrayList<>() : null;
+        deduplicatedEmailAddresses = includes(EmailListOutput.VALID_DEDUPLICATE,
+                EmailListOutput.DEDUPLICATED_EMAIL_ADDRESSES) ? new HashMap<>() : null;
+        domains = includes(EmailListOutput.DOMAINS) ? new HashMap<>() : null;
+        invalidReasons = includes(EmailListOutput.INVALID_REASONS) ? new EnumMap<>(InvalidReason.class) : null;
+    }
+
+    /**
+     * Sets a filter to check deduplicated email addresses against before the exact results. Addresses the filter
+     * reports as definitely new are added without first being looked up, so the exact results are only searched for
+     * possible duplicates. Results are unchanged. Must be set before any email addresses are added.
+     */
+    public void setDuplicateFilter(BloomFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+    }
+
+    private boolean includes(EmailListOutput... outputs) {
+        for (EmailListOutput output : outputs) {
+            if (this.outputs.contains(output))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the email address to each chosen output. Only the values of the parsed email are kept, so the same parsed
+     * email object can be reused for the next address afterwards.
+     */
+    public void addParsedEmail(ParsedEmail parsedEmail) {
+        if (parsedEmail == null)
+            return;
+        if (!parsedEmail.isValid()) {
+            if (invalidReasons != null)
+                invalidReasons.merge(parsedEmail.invalidReason(), 1, Integer::sum);
+            return;
+        }
+        if (validEmailAddresses != null)
+            validEmailAddresses.add(new EmailAddressAnalysis(parsedEmail));
+        if (deduplicatedEmailAddresses != null) {
+            EmailAddressAnalysis emailAddress = duplicateFilter != null && duplicateFilter.put(parsedEmail.getParsedEmailAddress())
+                    ? null : deduplicatedEmailAddresses.get(parsedEmail.getParsedEmailAddress());
+            if (emailAddress == null)
+                deduplicatedEmailAddresses.put(parsedEmail.getParsedEmailAddress(), new EmailAddressAnalysis(parsedEmail));
+            else
+                emailAddress.addParsedEmail(parsedEmail);
+        }
+        if (domains != null) {
+            DomainAnalysis domain = domains.get(parsedEmail.getDomain());
+            if (domain == null)
+                domains.put(parsedEmail.getDomain(), new DomainAnalysis(parsedEmail, domainRetention, approximatePrecision));
+            else
+                domain.addParsedEmail(parsedEmail);
+        }
+    }
+
+    /**
+     * Adds the results of another analysis to this one, as if the email addresses in the other analysis had been added
+     * after those already in this analysis. Only outputs collected by both analyses are combined. Results are moved
+     * from the other analysis rather than copied, so it shouldn't be used afterwards.
+     */
+    public void merge(EmailListAnalysis other) {
+        // The filter hasn't seen the other analysis's addresses, so can no longer say which are new
+        duplicateFilter = null;
+        if (validEmailAddresses != null && other.validEmailAddresses != null)
+            validEmailAddresses.addAll(other.validEmailAddresses);
+        if (deduplicatedEmailAddresses != null && other.deduplicatedEmailAddresses != null)
+            other.deduplicatedEmailAddresses.forEach((emailAddress, analysis) -> {
+                EmailAddressAnalysis existing = deduplicatedEmailAddresses.putIfAbsent(emailAddress, analysis);
+                if (existing != null) existing.merge(analysis);
+            });
+        if (domains != null && other.domains != null)
+            other.domains.forEach((domain, analysis) -> {
+                DomainAnalysis existing = domains.putIfAbsent(domain, analysis);
+                if (existing != null) existing.merge(analysis);
+            });
+        if (invalidReasons != null && other.invalidReasons != null)
+            other.invalidReasons.forEach((reason, count) -> invalidReasons.merge(reason, count, Integer::sum));
+    }
+
+    public Set<EmailListOutput> getOutputs() {
+        return Collections.unmodifiableSet(outputs);
+    }
+
+    /**
+     * Returns every valid email address in the list, including duplicates.
+     */
+    public List<String> getValid() {
+        if (!outputs.contains(EmailListOutput.VALID))
+            return null;
+        return SortedResults.sortParsedEmailAddresses(validEmailAddresses, order);
+    }
+
+    /**
+     * Returns the valid email addresses in the list with duplicates removed.
+     */
+    public List<String> getValidDeduplicate() {
+        if (!outputs.contains(EmailListOutput.VALID_DEDUPLICATE))
+            return null;
+        return SortedResults.sortParsedEmailAddresses(deduplicatedEmailAddresses.values(), order);
+    }
+
+    /**
+     * Returns the analysis results for each domain. When ordered by occurrences, only the maximum number of results is
+     * returned.
+     */
+    public List<DomainAnalysis> getDomains() {
+        if (!outputs.contains(EmailListOutput.DOMAINS))
+            return null;
+        if (isLimited())
+            return TopResults.select(domains.values(), (o1, o2) -> o1.compareTo(o2, order), maxResults, pool);
+        return SortedResults.sortDomains(domains.values(), order);
+    }
+
+    /**
+     * Returns the analysis results for each valid email address. Duplicates are NOT removed. When ordered by
+     * occurrences, only the maximum number of results is returned.
+     */
+    public List<EmailAddressAnalysis> getEmailAddresses() {
+        if (!outputs.contains(EmailListOutput.EMAIL_ADDRESSES))
+            return null;
+        if (isLimited())
+            return TopResults.select(validEmailAddresses, (o1, o2) -> o1.compareTo(o2, order), maxResults, pool);
+        return SortedResults.sortEmailAddresses(validEmailAddresses, order);
+    }
+
+    /**
+     * Returns the analysis results for each valid email address, combining any duplicates into a single result.
+     */
+    public List<EmailAddressAnalysis> getDeduplicatedEmailAddresses() {
+        if (!outputs.contains(EmailListOutput.DEDUPLICATED_EMAIL_ADDRESSES))
+            return null;
+        return SortedResults.sortEmailAddresses(deduplicatedEmailAddresses.values(), order);
+    }
+
+    /**
+     * Returns the number of invalid email addresses for each reason they were invalid.
+     */
+    public Map<InvalidReason, Integer> getInvalidReasons() {
+        if (!outputs.contains(EmailListOutput.INVALID_REASONS))
+            return null;
+        return Collections.unmodifiableMap(invalidReasons);
+    }
+
+    private boolean isLimited() {
+        return order == EmailListOrder.OCCURRENCES && maxResults != null;
+    }
+}
@@ -0,0 +1,37 @@
+package emails.analysis;
+
+/**
+ * Hash functions used by the approximate analysis structures. Unlike {@link String#hashCode()} these give 64-bit
+ * hashes with every bit well mixed, and they are fixed, so hashes can be compared between separate runs.
+ */
+public final class Hashing {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * Returns a 64-bit hash of the characters.
+     */
+    public static long hash64(CharSequence characters) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < characters.length(); i++) {
+            hash = (hash ^ characters.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spreads every bit of the value across the whole result, using the finalizer of MurmurHash3.
+     */
+    public static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,196 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the most frequent domains in an unbounded stream of email addresses using a fixed number of counters, with
+ * the Space-Saving algorithm. When every counter is in use, a new domain takes over the counter with the lowest count
+ * and inherits that count as its possible error.
+ *
+ * Each reported count is at least the true count of the domain, and at most its error above it. Any domain with more
+ * than total / capacity occurrences is always reported, and no domain which isn't being counted can have occurred more
+ * often than {@link #getMaximumError()}.
+ */
+public class HeavyHitters {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    // Min-heap of the counters by count, so the counter to replace is always first
+    private final Counter[] heap;
+    private int size;
+    private long total;
+
+    public HeavyHitters(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * Counts the domain of the email address if it is valid.
+     */
+    public void addParsedEmail(ParsedEmail parsedEmail) {
+        if (parsedEmail != null && parsedEmail.isValid())
+            add(parsedEmail.getDomain());
+    }
+
+    public void add(String key) {
+        total++;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter.heapIndex);
+        } else if (size < capacity) {
+            counter = new Counter(key, 1, 0);
+            counter.heapIndex = size;
+            heap[size++] = counter;
+            counters.put(key, counter);
+            siftUp(counter.heapIndex);
+        } else {
+            counter = heap[0];
+            counters.remove(counter.key);
+            counter.key = key;
+            counter.error = counter.count;
+            counter.count++;
+            counters.put(key, counter);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count)
+                break;
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1].count < heap[child].count)
+                child++;
+            if (counter.count <= heap[child].count)
+                break;
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of values added, including those no longer being counted.
+     */
+    public long getTotalCount() {
+        return total;
+    }
+
+    /**
+     * Returns the most any count can be above the true count, which is also the most often any value that isn't
+     * being counted can have occurred. This is zero while there are still unused counters, when all counts are exact.
+     */
+    public long getMaximumError() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    /**
+     * Returns up to the given number of values with the highest counts, ordered by count and then alphabetically.
+     * Each result is marked as guaranteed if its true count must be at least as high as that of any value not in the
+     * results.
+     */
+    public List<HeavyHitter> getTopResults(int maxResults) {
+        Counter[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, (o1, o2) -> o1.count != o2.count ? Long.compare(o2.count, o1.count) : o1.key.compareTo(o2.key));
+        int resultCount = Math.min(Math.max(maxResults, 0), size);
+        // The highest count any value outside the results could have
+        long excludedCount = resultCount < size ? sorted[resultCount].count : getMaximumError();
+        List<HeavyHitter> results = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+            Counter counter = sorted[i];
+            results.add(new HeavyHitter(counter.key, counter.count, counter.error,
+                    counter.count - counter.error >= excludedCount));
+        }
+        return results;
+    }
+
+    private static class Counter {
+
+        private String key;
+        private long count;
+        private long error;
+        private int heapIndex;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A value reported by a heavy hitters tracker, with its estimated count and the most the estimate can be above the
+     * true count.
+     */
+    public static class HeavyHitter {
+
+        private final String value;
+        private final long count;
+        private final long error;
+        private final boolean guaranteed;
+
+        HeavyHitter(String value, long count, long error, boolean guaranteed) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+            this.guaranteed = guaranteed;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the estimated count, which is never below the true count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public long getLowerBound() {
+            return count - error;
+        }
+
+        /**
+         * Returns true if this value is certain to belong in the results it was returned in.
+         */
+        public boolean isGuaranteed() {
+            return guaranteed;
+        }
+    }
+}
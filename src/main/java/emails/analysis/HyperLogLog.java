@@ -0,0 +1,178 @@
+package emails.analysis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct values added to it using a fixed amount of memory, with the HyperLogLog algorithm.
+ * The precision sets the number of registers as a power of two, with each extra bit of precision doubling the memory
+ * used and reducing the standard error by a factor of root two. A precision of 12 uses 4KB and has a standard error
+ * of about 1.6%.
+ *
+ * Small sketches keep the hashes of their values instead of registers, which gives exact counts (barring hash
+ * collisions) and uses far less memory when there are few distinct values, such as for most domains in a list.
+ * Sketches with the same precision can be merged, including sketches saved by {@link #toByteArray()} in another run.
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private final int precision;
+    private final int registerCount;
+
+    // Sorted distinct hashes, used until there are too many to be smaller than the registers
+    private long[] hashes = new long[4];
+    private int hashCount;
+    private byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(CharSequence value) {
+        addHash(Hashing.hash64(value));
+    }
+
+    /**
+     * Adds a value by its 64-bit hash, which must have all of its bits well mixed, such as those from
+     * {@link Hashing}.
+     */
+    public void addHash(long hash) {
+        if (registers != null) {
+            addToRegisters(hash);
+            return;
+        }
+        int index = Arrays.binarySearch(hashes, 0, hashCount, hash);
+        if (index >= 0)
+            return;
+        if (hashCount >= registerCount / 8) {
+            toRegisters();
+            addToRegisters(hash);
+            return;
+        }
+        index = -index - 1;
+        if (hashCount == hashes.length)
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        System.arraycopy(hashes, index, hashes, index + 1, hashCount - index);
+        hashes[index] = hash;
+        hashCount++;
+    }
+
+    private void addToRegisters(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1);
+        if (registers[index] < rank)
+            registers[index] = rank;
+    }
+
+    private void toRegisters() {
+        registers = new byte[registerCount];
+        for (int i = 0; i < hashCount; i++) addToRegisters(hashes[i]);
+        hashes = null;
+        hashCount = 0;
+    }
+
+    /**
+     * Adds every value counted by another sketch to this one. Both sketches must have the same precision.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("Sketches with different precisions can't be merged");
+        if (other.registers == null) {
+            for (int i = 0; i < other.hashCount; i++) addHash(other.hashes[i]);
+            return;
+        }
+        if (registers == null)
+            toRegisters();
+        for (int i = 0; i < registerCount; i++) {
+            if (registers[i] < other.registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values added.
+     */
+    public long estimate() {
+        if (registers == null)
+            return hashCount;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) zeros++;
+        }
+        double estimate = alpha() * registerCount * registerCount / sum;
+        // Linear counting is more accurate while many registers are still empty
+        if (estimate <= 2.5 * registerCount && zeros > 0)
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        return Math.round(estimate);
+    }
+
+    private double alpha() {
+        switch (registerCount) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+    /**
+     * Returns the standard error of estimates as a fraction of the estimate. Estimates are exact while the sketch is
+     * small enough to keep the hashes of its values.
+     */
+    public double getRelativeError() {
+        return registers == null ? 0 : 1.04 / Math.sqrt(registerCount);
+    }
+
+    public ApproximateCount count() {
+        return new ApproximateCount(estimate(), getRelativeError());
+    }
+
+    /**
+     * Returns the sketch as bytes, which can be saved and read by {@link #fromByteArray(byte[])} to merge with
+     * sketches from other runs.
+     */
+    public byte[] toByteArray() {
+        if (registers == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(7 + hashCount * 8)
+                    .put(FORMAT_VERSION).put((byte) precision).put((byte) 0).putInt(hashCount);
+            for (int i = 0; i < hashCount; i++) buffer.putLong(hashes[i]);
+            return buffer.array();
+        }
+        return ByteBuffer.allocate(3 + registerCount)
+                .put(FORMAT_VERSION).put((byte) precision).put((byte) 1).put(registers).array();
+    }
+
+    public static HyperLogLog fromByteArray(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.get() != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unknown sketch format");
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+        if (buffer.get() == 0) {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) sketch.addHash(buffer.getLong());
+        } else {
+            sketch.registers = new byte[sketch.registerCount];
+            buffer.get(sketch.registers);
+            sketch.hashes = null;
+        }
+        return sketch;
+    }
+}
@@ -78,4 +78,13 @@ public interface ParsedEmail {
      */
     String getDomain();
 
+    /**
+     * Returns the email address domain as it would be returned by {@link #getDomain()}, or null if the email address
+     * is invalid. Implementations may return a view of the parsed input instead of a new string, which is only valid
+     * until the parsed email is reused for another address.
+     */
+    default CharSequence getDomainCharacters() {
+        return getDomain();
+    }
+
 }
@@ -0,0 +1,85 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import emails.constants.EmailListOrder;
+
+/**
+ * Sorts analysis results in a list order, giving the same order as sorting by their compareTo methods, without
+ * checking the order on every comparison. Results are first sorted alphabetically by their strings. For occurrence
+ * order, each count is then packed with the alphabetical position of its result into a long key, and the keys are
+ * sorted as primitives, so ties keep the alphabetical order without comparing strings again.
+ *
+ * Sorting uses {@link Arrays#parallelSort}, which is stable and splits large arrays across the threads of the common
+ * fork/join pool.
+ */
+final class SortedResults {
+
+    private static final Comparator<EmailAddressAnalysis> EMAIL_ADDRESS_ORDER =
+            Comparator.comparing(EmailAddressAnalysis::getParsedEmailAddress);
+    private static final Comparator<EmailAddressAnalysis> DOMAIN_ORDER =
+            Comparator.comparing(EmailAddressAnalysis::getDomain).thenComparing(EMAIL_ADDRESS_ORDER);
+    private static final Comparator<DomainAnalysis> DOMAIN_NAME_ORDER = Comparator.comparing(DomainAnalysis::getDomain);
+
+    private SortedResults() {
+    }
+
+    static List<EmailAddressAnalysis> sortEmailAddresses(Collection<EmailAddressAnalysis> emailAddresses,
+                                                         EmailListOrder order) {
+        EmailAddressAnalysis[] sorted = emailAddresses.toArray(new EmailAddressAnalysis[0]);
+        Arrays.parallelSort(sorted, order == EmailListOrder.DOMAIN_ALPHABETICAL ? DOMAIN_ORDER : EMAIL_ADDRESS_ORDER);
+        if (order != EmailListOrder.OCCURRENCES)
+            return new ArrayList<>(Arrays.asList(sorted));
+        long[] keys = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) keys[i] = packedKey(sorted[i].getTotalCount(), i);
+        return inKeyOrder(sorted, keys);
+    }
+
+    /**
+     * Returns the parsed email address of each result, in the order the results are sorted in.
+     */
+    static List<String> sortParsedEmailAddresses(Collection<EmailAddressAnalysis> emailAddresses, EmailListOrder order) {
+        if (order == EmailListOrder.OCCURRENCES || order == EmailListOrder.DOMAIN_ALPHABETICAL) {
+            List<EmailAddressAnalysis> sorted = sortEmailAddresses(emailAddresses, order);
+            List<String> results = new ArrayList<>(sorted.size());
+            for (EmailAddressAnalysis emailAddress : sorted) results.add(emailAddress.getParsedEmailAddress());
+            return results;
+        }
+        String[] sorted = new String[emailAddresses.size()];
+        int i = 0;
+        for (EmailAddressAnalysis emailAddress : emailAddresses) sorted[i++] = emailAddress.getParsedEmailAddress();
+        Arrays.parallelSort(sorted);
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    static List<DomainAnalysis> sortDomains(Collection<DomainAnalysis> domains, EmailListOrder order) {
+        DomainAnalysis[] sorted = domains.toArray(new DomainAnalysis[0]);
+        Arrays.parallelSort(sorted, DOMAIN_NAME_ORDER);
+        if (order != EmailListOrder.OCCURRENCES)
+            return new ArrayList<>(Arrays.asList(sorted));
+        long[] keys = new long[sorted.length];
+        // Domains with the most occurrences come first
+        for (int i = 0; i < sorted.length; i++)
+            keys[i] = packedKey(Integer.MAX_VALUE - sorted[i].getTotalEmailAddressCount(), i);
+        return inKeyOrder(sorted, keys);
+    }
+
+    /**
+     * Packs a count, which can't be negative, above the position of its result, so keys sort by count and then
+     * position.
+     */
+    private static long packedKey(int count, int position) {
+        return (long) count << 32 | position;
+    }
+
+    private static <T> List<T> inKeyOrder(T[] sorted, long[] keys) {
+        Arrays.parallelSort(keys);
+        List<T> results = new ArrayList<>(keys.length);
+        for (long key : keys) results.add(sorted[(int) key]);
+        return results;
+    }
+}
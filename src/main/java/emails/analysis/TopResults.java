@@ -0,0 +1,142 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Selects the first results of a collection in a given order without sorting the whole collection. Only the current
+ * best results are kept, in a heap with the worst of them at its head, so selecting k results from n takes
+ * O(n log k) time.
+ *
+ * Results which are equal in the given order are kept in their order in the collection, so the selection always
+ * matches the start of a stable sort of the collection.
+ */
+final class TopResults {
+
+    // Smallest section of the collection searched by a single task when selecting in parallel
+    private static final int MIN_PARALLEL_SECTION = 8192;
+
+    private TopResults() {
+    }
+
+    /**
+     * Returns the first results of the collection in the given order, up to the limit. If a pool is given, sections
+     * of the collection are searched in parallel and their results merged.
+     */
+    static <T> List<T> select(Collection<? extends T> items, Comparator<? super T> comparator, int limit, ForkJoinPool pool) {
+        if (limit <= 0)
+            return new ArrayList<>();
+        if (limit >= items.size()) {
+            List<T> results = new ArrayList<>(items);
+            results.sort(comparator);
+            return results;
+        }
+        List<? extends T> list = items instanceof List ? (List<? extends T>) items : new ArrayList<>(items);
+        Comparator<Ranked<T>> rankOrder = rankOrder(comparator);
+        PriorityQueue<Ranked<T>> heap;
+        if (pool == null || list.size() <= MIN_PARALLEL_SECTION) {
+            heap = new PriorityQueue<>(limit + 1, rankOrder.reversed());
+            selectSection(list, 0, list.size(), comparator, limit, heap);
+        } else {
+            int sectionSize = Math.max(MIN_PARALLEL_SECTION, list.size() / (pool.getParallelism() * 4));
+            heap = pool.invoke(new SelectTask<>(list, 0, list.size(), sectionSize, comparator, rankOrder, limit));
+        }
+
+        List<Ranked<T>> ranked = new ArrayList<>(heap);
+        ranked.sort(rankOrder);
+        List<T> results = new ArrayList<>(ranked.size());
+        for (Ranked<T> result : ranked) results.add(result.item);
+        return results;
+    }
+
+    private static <T> void selectSection(List<? extends T> items, int start, int end, Comparator<? super T> comparator,
+                                          int limit, PriorityQueue<Ranked<T>> heap) {
+        for (int i = start; i < end; i++) {
+            T item = items.get(i);
+            // Items come in collection order, so an item equal to the worst kept result is never better than it
+            if (heap.size() < limit)
+                heap.add(new Ranked<>(item, i));
+            else if (comparator.compare(item, heap.peek().item) < 0) {
+                heap.poll();
+                heap.add(new Ranked<>(item, i));
+            }
+        }
+    }
+
+    private static <T> Comparator<Ranked<T>> rankOrder(Comparator<? super T> comparator) {
+        return (o1, o2) -> {
+            int compare = comparator.compare(o1.item, o2.item);
+            return compare != 0 ? compare : Integer.compare(o1.index, o2.index);
+        };
+    }
+
+    /**
+     * An item with its position in the collection, used to keep equal items in collection order.
+     */
+    private static class Ranked<T> {
+
+        private final T item;
+        private final int index;
+
+        Ranked(T item, int index) {
+            this.item = item;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Selects the best results of a section of the collection, splitting it in half until it is small enough to
+     * search directly. The heaps of each half are merged by offering the results of one to the other.
+     */
+    private static class SelectTask<T> extends RecursiveTask<PriorityQueue<Ranked<T>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends T> items;
+        private final int start;
+        private final int end;
+        private final int sectionSize;
+        private final Comparator<? super T> comparator;
+        private final Comparator<Ranked<T>> rankOrder;
+        private final int limit;
+
+        SelectTask(List<? extends T> items, int start, int end, int sectionSize, Comparator<? super T> comparator,
+                   Comparator<Ranked<T>> rankOrder, int limit) {
+            this.items = items;
+            this.start = start;
+            this.end = end;
+            this.sectionSize = sectionSize;
+            this.comparator = comparator;
+            this.rankOrder = rankOrder;
+            this.limit = limit;
+        }
+
+        @Override
+        protected PriorityQueue<Ranked<T>> compute() {
+            if (end - start <= sectionSize) {
+                PriorityQueue<Ranked<T>> heap = new PriorityQueue<>(limit + 1, rankOrder.reversed());
+                selectSection(items, start, end, comparator, limit, heap);
+                return heap;
+            }
+            int middle = (start + end) >>> 1;
+            SelectTask<T> first = new SelectTask<>(items, start, middle, sectionSize, comparator, rankOrder, limit);
+            SelectTask<T> second = new SelectTask<>(items, middle, end, sectionSize, comparator, rankOrder, limit);
+            second.fork();
+            PriorityQueue<Ranked<T>> heap = first.compute();
+            for (Ranked<T> result : second.join()) {
+                if (heap.size() < limit)
+                    heap.add(result);
+                else if (rankOrder.compare(result, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(result);
+                }
+            }
+            return heap;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package emails.analysis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the domains of email addresses arriving over time within a sliding window, such as signups over the last
+ * hour. The window is split into a ring of buckets of equal duration, and each address is counted in the bucket for
+ * its timestamp. As time moves on the oldest bucket is emptied and reused, and its counts are taken off the window
+ * totals, so counting an address takes constant time however long the window is.
+ *
+ * Time is taken from the timestamps of the addresses added, or moved on by {@link #advanceTo(long)}. Addresses may
+ * arrive out of order, but those older than the window are ignored. Memory use depends on the number of buckets and
+ * the distinct domains seen within the window.
+ */
+public class WindowedDomainCounts {
+
+    private final long bucketMillis;
+    private final Map<String, Counter>[] buckets;
+    private final Map<String, Counter> totals = new HashMap<>();
+    private long latestBucket = Long.MIN_VALUE;
+    private long totalCount;
+
+    /**
+     * Creates a window covering the given number of buckets of the given duration, which must be at least a
+     * millisecond.
+     */
+    public WindowedDomainCounts(Duration bucketDuration, int bucketCount) {
+        if (bucketDuration.toMillis() <= 0)
+            throw new IllegalArgumentException("Bucket duration must be at least a millisecond");
+        if (bucketCount <= 0)
+            throw new IllegalArgumentException("Bucket count must be positive");
+        this.bucketMillis = bucketDuration.toMillis();
+        this.buckets = newBuckets(bucketCount);
+        for (int i = 0; i < bucketCount; i++) buckets[i] = new HashMap<>();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, Counter>[] newBuckets(int bucketCount) {
+        return new Map[bucketCount];
+    }
+
+    /**
+     * Counts the domain of the email address at the given time in milliseconds since the epoch, returning false if
+     * the email address is invalid or the time is before the window.
+     */
+    public boolean addParsedEmail(ParsedEmail parsedEmail, long timestampMillis) {
+        return parsedEmail != null && parsedEmail.isValid() && add(parsedEmail.getDomain(), timestampMillis);
+    }
+
+    /**
+     * Counts the domain at the given time in milliseconds since the epoch, returning false if the time is before the
+     * window.
+     */
+    public boolean add(String domain, long timestampMillis) {
+        long bucket = Math.floorDiv(timestampMillis, bucketMillis);
+        advanceToBucket(bucket);
+        if (bucket <= latestBucket - buckets.length)
+            return false;
+        buckets[slot(bucket)].computeIfAbsent(domain, d -> new Counter()).count++;
+        totals.computeIfAbsent(domain, d -> new Counter()).count++;
+        totalCount++;
+        return true;
+    }
+
+    /**
+     * Moves the window on to the given time in milliseconds since the epoch without counting anything, dropping the
+     * counts which fall out of it. Earlier times are ignored.
+     */
+    public void advanceTo(long timestampMillis) {
+        advanceToBucket(Math.floorDiv(timestampMillis, bucketMillis));
+    }
+
+    private void advanceToBucket(long bucket) {
+        if (latestBucket == Long.MIN_VALUE) {
+            latestBucket = bucket;
+            return;
+        }
+        if (bucket <= latestBucket)
+            return;
+        long expired = Math.min(bucket - latestBucket, buckets.length);
+        for (long i = 1; i <= expired; i++) expire(buckets[slot(latestBucket + i)]);
+        latestBucket = bucket;
+    }
+
+    private void expire(Map<String, Counter> bucket) {
+        for (Map.Entry<String, Counter> entry : bucket.entrySet()) {
+            Counter total = totals.get(entry.getKey());
+            total.count -= entry.getValue().count;
+            totalCount -= entry.getValue().count;
+            if (total.count == 0)
+                totals.remove(entry.getKey());
+        }
+        bucket.clear();
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) buckets.length);
+    }
+
+    /**
+     * Returns the duration covered by the whole window.
+     */
+    public Duration getWindow() {
+        return Duration.ofMillis(bucketMillis * buckets.length);
+    }
+
+    /**
+     * Returns the number of email addresses counted within the window.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns up to the given number of domains with the highest counts in the whole window, ordered by count and then
+     * alphabetically.
+     */
+    public List<DomainCount> getTopDomains(int maxResults) {
+        List<DomainCount> counts = new ArrayList<>(totals.size());
+        totals.forEach((domain, counter) -> counts.add(new DomainCount(domain, counter.count)));
+        return TopResults.select(counts, DomainCount.COUNT_ORDER, maxResults, null);
+    }
+
+    /**
+     * Returns up to the given number of domains with the highest counts in the most recent part of the window,
+     * ordered by count and then alphabetically. The period is rounded up to a whole number of buckets, including the
+     * latest bucket, and covers at most the whole window. A period of one bucket gives the counts of tumbling windows.
+     */
+    public List<DomainCount> getTopDomains(Duration period, int maxResults) {
+        long bucketCount = (period.toMillis() + bucketMillis - 1) / bucketMillis;
+        if (bucketCount >= buckets.length)
+            return getTopDomains(maxResults);
+        Map<String, Counter> periodCounts = new HashMap<>();
+        for (long i = 0; i < bucketCount && latestBucket != Long.MIN_VALUE; i++) {
+            buckets[slot(latestBucket - i)].forEach((domain, counter) ->
+                    periodCounts.computeIfAbsent(domain, d -> new Counter()).count += counter.count);
+        }
+        List<DomainCount> counts = new ArrayList<>(periodCounts.size());
+        periodCounts.forEach((domain, counter) -> counts.add(new DomainCount(domain, counter.count)));
+        return TopResults.select(counts, DomainCount.COUNT_ORDER, maxResults, null);
+    }
+
+    private static class Counter {
+
+        private long count;
+    }
+}
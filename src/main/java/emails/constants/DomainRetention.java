@@ -0,0 +1,17 @@
+package emails.constants;
+
+/**
+ * How much of each email address is kept by a domain analysis.
+ */
+public enum DomainRetention {
+
+    // Only counts of email addresses and sub-addresses
+    COUNTS,
+    // Counts, and the unique local parts and sub-addresses
+    UNIQUE,
+    // Counts, and sketches estimating the number of unique local parts and sub-addresses
+    APPROXIMATE,
+    // Counts, unique values, and every local part and sub-address in the order added
+    FULL,
+
+}
@@ -0,0 +1,12 @@
+package emails.constants;
+
+public enum EmailListOutput {
+
+    VALID,
+    VALID_DEDUPLICATE,
+    DOMAINS,
+    EMAIL_ADDRESSES,
+    DEDUPLICATED_EMAIL_ADDRESSES,
+    INVALID_REASONS,
+
+}
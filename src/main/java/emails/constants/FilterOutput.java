@@ -0,0 +1,15 @@
+package emails.constants;
+
+/**
+ * Which lines a line filter writes, and how.
+ */
+public enum FilterOutput {
+
+    // Valid lines, exactly as read
+    ACCEPTED,
+    // Invalid lines, exactly as read
+    REJECTED,
+    // The parsed email address of each valid line
+    NORMALIZED,
+
+}
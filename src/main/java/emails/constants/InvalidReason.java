@@ -15,6 +15,7 @@ public enum InvalidReason {
     CONSECUTIVE_DOTS,
     EDGE_DOT,
     DOMAIN_EDGE_HYPHEN,
+    NO_DOMAIN,
 
     // Optionally invalid
     NO_TOP_LEVEL_DOMAIN,
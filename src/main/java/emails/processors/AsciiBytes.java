@@ -0,0 +1,152 @@
+package emails.processors;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a range of ASCII bytes as characters, so that bytes can be parsed without first being decoded
+ * into a string. The range can be in a byte array or a byte buffer, and is read in place, so it must not be changed
+ * while the view is in use.
+ *
+ * Before parsing, {@link #scan()} checks the range eight bytes at a time for the characters that need the full parser,
+ * so that plain addresses can be recognised without looking at each byte separately.
+ */
+final class AsciiBytes implements CharSequence {
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long AT_SYMBOLS = 0x4040404040404040L;
+    private static final long QUOTES = 0x2222222222222222L;
+    private static final long OPEN_PARENTHESES = 0x2828282828282828L;
+    private static final long CLOSE_PARENTHESES = 0x2929292929292929L;
+
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+
+    // Array wrapped in a little-endian buffer, so eight bytes can be read from it at once
+    private byte[] wordArray;
+    private ByteBuffer words;
+
+    // Results of the last scan
+    boolean ascii;
+    boolean hasQuotesOrComments;
+    int atCount;
+    int atIndex;
+
+    AsciiBytes wrap(byte[] array, int start, int length) {
+        this.array = array;
+        this.buffer = null;
+        this.start = start;
+        this.length = length;
+        if (wordArray != array) {
+            wordArray = array;
+            words = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return this;
+    }
+
+    AsciiBytes wrap(ByteBuffer buffer, int start, int length) {
+        if (buffer.hasArray())
+            return wrap(buffer.array(), buffer.arrayOffset() + start, length);
+        this.array = null;
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Finds whether the range is all ASCII, whether it has any quotes or parentheses, and how many '@' symbols it has
+     * and where the first is. Whole words are checked for each character at once, with the remaining bytes checked
+     * one at a time.
+     */
+    AsciiBytes scan() {
+        ByteBuffer source = array != null ? words : buffer;
+        boolean bigEndian = array == null && buffer.order() == ByteOrder.BIG_ENDIAN;
+        long highBits = 0;
+        long specials = 0;
+        atCount = 0;
+        atIndex = -1;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long word = source.getLong(start + i);
+            highBits |= word & HIGH_BITS;
+            specials |= matches(word, QUOTES) | matches(word, OPEN_PARENTHESES) | matches(word, CLOSE_PARENTHESES);
+            long ats = matches(word, AT_SYMBOLS);
+            if (ats != 0) {
+                if (atCount == 0)
+                    atIndex = i + (bigEndian ? Long.numberOfLeadingZeros(ats) : Long.numberOfTrailingZeros(ats)) / 8;
+                atCount += Long.bitCount(ats);
+            }
+        }
+        for (; i < length; i++) {
+            byte b = byteAt(i);
+            highBits |= b & 0x80;
+            if (b == '"' || b == '(' || b == ')')
+                specials = 1;
+            else if (b == '@' && atCount++ == 0)
+                atIndex = i;
+        }
+        ascii = highBits == 0;
+        hasQuotesOrComments = specials != 0;
+        return this;
+    }
+
+    /**
+     * Returns a word with the high bit set in each byte of the word which is equal to the same byte of the pattern,
+     * and every other bit clear. Unlike the shorter subtraction trick, no byte can affect its neighbours, so the set
+     * bits can be counted.
+     */
+    private static long matches(long word, long pattern) {
+        long difference = word ^ pattern;
+        return ~((difference & LOW_BITS) + LOW_BITS | difference | LOW_BITS);
+    }
+
+    /**
+     * Returns the byte at the index, relative to the start of the range.
+     */
+    byte byteAt(int index) {
+        return array != null ? array[start + index] : buffer.get(start + index);
+    }
+
+    /**
+     * Decodes the whole range as UTF-8.
+     */
+    String decode() {
+        if (array != null)
+            return new String(array, start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = byteAt(i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (byteAt(index) & 0xFF);
+    }
+
+    /**
+     * Returns the characters between the offsets as a new string.
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        if (array != null)
+            return new String(array, this.start + start, end - start, StandardCharsets.ISO_8859_1);
+        char[] characters = new char[end - start];
+        for (int i = start; i < end; i++) characters[i - start] = charAt(i);
+        return new String(characters);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+}
@@ -0,0 +1,87 @@
+package emails.processors;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * A precomputed set of characters used to check email addresses one character at a time. ASCII characters are held
+ * in a 128-bit bitmap. Non-ASCII characters are either all allowed, or only allowed if individually added, such as
+ * the sub-address characters of a parser configuration, which are kept sorted and found by binary search.
+ */
+final class CharacterSet {
+
+    private final long low;
+    private final long high;
+    private final boolean allowNonAscii;
+    private final char[] nonAsciiCharacters;
+
+    private CharacterSet(long low, long high, boolean allowNonAscii, char[] nonAsciiCharacters) {
+        this.low = low;
+        this.high = high;
+        this.allowNonAscii = allowNonAscii;
+        this.nonAsciiCharacters = nonAsciiCharacters;
+    }
+
+    boolean contains(char ch) {
+        if (ch < 64) return (low & (1L << ch)) != 0;
+        if (ch < 128) return (high & (1L << ch)) != 0;
+        return allowNonAscii || nonAsciiCharacters.length > 0 && Arrays.binarySearch(nonAsciiCharacters, ch) >= 0;
+    }
+
+    /**
+     * Returns true if every character between the offsets is in this set.
+     */
+    boolean containsAll(CharSequence characters, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!contains(characters.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static class Builder {
+
+        private long low;
+        private long high;
+        private boolean allowNonAscii;
+        private final TreeSet<Character> nonAsciiCharacters = new TreeSet<>();
+
+        Builder add(char ch) {
+            if (ch < 64) low |= 1L << ch;
+            else if (ch < 128) high |= 1L << ch;
+            else nonAsciiCharacters.add(ch);
+            return this;
+        }
+
+        Builder addRange(char from, char to) {
+            for (char ch = from; ch <= to; ch++) add(ch);
+            return this;
+        }
+
+        Builder addAll(Collection<Character> characters) {
+            characters.forEach(this::add);
+            return this;
+        }
+
+        Builder addAlphanumeric() {
+            return addRange('a', 'z').addRange('A', 'Z').addRange('0', '9');
+        }
+
+        Builder allowNonAscii(boolean allowNonAscii) {
+            this.allowNonAscii = allowNonAscii;
+            return this;
+        }
+
+        CharacterSet build() {
+            char[] characters = new char[nonAsciiCharacters.size()];
+            int i = 0;
+            for (char ch : nonAsciiCharacters) characters[i++] = ch;
+            return new CharacterSet(low, high, allowNonAscii, characters);
+        }
+    }
+}
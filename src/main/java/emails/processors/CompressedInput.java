@@ -0,0 +1,57 @@
+package emails.processors;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens input which may be gzip-compressed, recognising it by the two bytes every gzip stream starts with, so
+ * compressed and plain text input can be read the same way.
+ */
+public final class CompressedInput {
+
+    private static final int GZIP_FIRST_BYTE = 0x1f;
+    private static final int GZIP_SECOND_BYTE = 0x8b;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Returns true if the file starts as a gzip stream does.
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == GZIP_FIRST_BYTE && in.read() == GZIP_SECOND_BYTE;
+        }
+    }
+
+    /**
+     * Opens the file, decompressing it as it is read if it is gzip-compressed.
+     */
+    public static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            return decompress(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a buffered stream over the input, which decompresses it if it starts as a gzip stream does. Closing the
+     * returned stream closes the input.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        boolean compressed = buffered.read() == GZIP_FIRST_BYTE && buffered.read() == GZIP_SECOND_BYTE;
+        buffered.reset();
+        return compressed ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+    }
+}
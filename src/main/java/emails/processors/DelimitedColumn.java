@@ -0,0 +1,286 @@
+package emails.processors;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Picks the email address out of one column of delimited records, such as CSV or TSV exports with one record per
+ * line, so the rest of each record is never decoded or split up. The column is chosen by its index, or by its name in
+ * a header line at the start of the input.
+ *
+ * Records are read as bytes in place. A field starting with a quote runs to the matching closing quote, so it may hold
+ * the delimiter, and a doubled quote inside it stands for one quote. Quoted fields can't hold line ends, and a record
+ * without the column gives an empty, invalid address. A UTF-8 byte order mark at the start of the input is skipped,
+ * whether the first line is a header or a record. Columns are immutable once built, so can be shared between threads.
+ */
+public class DelimitedColumn {
+
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final String BYTE_ORDER_MARK_CHARACTER = "\uFEFF";
+
+    final byte delimiter;
+    final byte quote;
+    final int index;
+    final String name;
+    final boolean header;
+
+    private DelimitedColumn(byte delimiter, byte quote, int index, String name, boolean header) {
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.index = index;
+        this.name = name;
+        this.header = header;
+    }
+
+    /**
+     * Returns a builder for a column, which by default is the first column of comma separated records without a header.
+     */
+    public static DelimitedColumnBuilder custom() {
+        return new DelimitedColumnBuilder();
+    }
+
+    /**
+     * Returns true if the first line of the input is a header rather than a record.
+     */
+    public boolean hasHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the values of the column from the lines, skipping the header line if there is one. The lines must be
+     * the whole input from its start, and are read in order.
+     */
+    public Stream<String> values(Stream<String> lines) {
+        return records(lines, (record, value) -> value);
+    }
+
+    /**
+     * Returns the records in the lines combined with the value of the column in each, skipping the header line if
+     * there is one, so each record can be kept as it was read. The lines must be the whole input from its start, and
+     * are read in order. The combined results can't be null.
+     */
+    public <T> Stream<T> records(Stream<String> lines, BiFunction<String, String, T> combine) {
+        return lines.sequential().map(new Function<String, T>() {
+            private DelimitedColumn column = header ? null : DelimitedColumn.this;
+            private boolean first = true;
+
+            @Override
+            public T apply(String line) {
+                if (first && line.startsWith(BYTE_ORDER_MARK_CHARACTER))
+                    line = line.substring(BYTE_ORDER_MARK_CHARACTER.length());
+                first = false;
+                if (column != null)
+                    return combine.apply(line, column.value(line));
+                column = forHeader(line);
+                return null;
+            }
+        }).filter(Objects::nonNull);
+    }
+
+    /**
+     * Returns the value of the column in the record, or an empty string if the record doesn't have it.
+     */
+    public String value(String record) {
+        checkFound();
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        int start = fieldStart(bytes, 0, bytes.length);
+        if (start < 0)
+            return "";
+        int end = fieldEnd(bytes, start, bytes.length);
+        if (start < end && bytes[start] == quote) {
+            byte[] unquoted = unquote(bytes, start, end);
+            return new String(unquoted, 0, unquoted.length, StandardCharsets.UTF_8);
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns this column with its index found from the names in the header line, if it is chosen by name.
+     */
+    public DelimitedColumn forHeader(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return forHeader(bytes, 0, bytes.length);
+    }
+
+    DelimitedColumn forHeader(byte[] line, int offset, int length) {
+        if (name == null)
+            return this;
+        int end = offset + length;
+        int i = offset + byteOrderMarkLength(line, offset, length);
+        for (int column = 0; i <= end; column++) {
+            int fieldEnd = fieldEnd(line, i, end);
+            String fieldName = i < fieldEnd && line[i] == quote
+                    ? new String(unquote(line, i, fieldEnd), StandardCharsets.UTF_8)
+                    : new String(line, i, fieldEnd - i, StandardCharsets.UTF_8);
+            if (fieldName.trim().equalsIgnoreCase(name))
+                return new DelimitedColumn(delimiter, quote, column, name, true);
+            i = fieldEnd + 1;
+        }
+        throw new IllegalArgumentException("No column named " + name + " in the header");
+    }
+
+    /**
+     * Returns the length of the UTF-8 byte order mark at the start of the first line of the input, or 0 if it has none.
+     */
+    static int byteOrderMarkLength(byte[] line, int offset, int length) {
+        if (length >= BYTE_ORDER_MARK.length && line[offset] == BYTE_ORDER_MARK[0]
+                && line[offset + 1] == BYTE_ORDER_MARK[1] && line[offset + 2] == BYTE_ORDER_MARK[2])
+            return BYTE_ORDER_MARK.length;
+        return 0;
+    }
+
+    /**
+     * Parses the value of the column in the record. Unless the value has a doubled quote, it is parsed where it is
+     * in the record.
+     */
+    EmailContext parse(EmailParser parser, byte[] record, int offset, int length, EmailContext result) {
+        checkFound();
+        int end = offset + length;
+        int start = fieldStart(record, offset, end);
+        if (start < 0)
+            return parser.parse(record, end, 0, result);
+        int fieldEnd = fieldEnd(record, start, end);
+        if (start == fieldEnd || record[start] != quote)
+            return parser.parse(record, start, fieldEnd - start, result);
+        int closingQuote = closingQuote(record, start, fieldEnd);
+        if (closingQuote >= 0)
+            return parser.parse(record, start + 1, closingQuote - start - 1, result);
+        byte[] unquoted = unquote(record, start, fieldEnd);
+        return parser.parse(unquoted, 0, unquoted.length, result);
+    }
+
+    private void checkFound() {
+        if (index < 0)
+            throw new IllegalStateException("Column " + name + " hasn't been found in a header");
+    }
+
+    /**
+     * Returns the start of the column in the record, or -1 if the record has fewer columns.
+     */
+    private int fieldStart(byte[] record, int offset, int end) {
+        int i = offset;
+        for (int column = 0; column < index; column++) {
+            i = fieldEnd(record, i, end);
+            if (i >= end)
+                return -1;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the delimiter ending the field starting at the given index, or the end of the record.
+     */
+    private int fieldEnd(byte[] record, int start, int end) {
+        int i = start;
+        if (i < end && record[i] == quote) {
+            for (i++; i < end; i++) {
+                if (record[i] != quote)
+                    continue;
+                if (i + 1 < end && record[i + 1] == quote)
+                    i++;
+                else
+                    break;
+            }
+        }
+        while (i < end && record[i] != delimiter) i++;
+        return i;
+    }
+
+    /**
+     * Returns the index of the quote closing the quoted field, or -1 if the field has a doubled quote, which needs
+     * to be unquoted first. A field without a closing quote runs to its end.
+     */
+    private int closingQuote(byte[] record, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            if (record[i] == quote)
+                return i + 1 < end && record[i + 1] == quote ? -1 : i;
+        }
+        return end;
+    }
+
+    /**
+     * Copies the contents of the quoted field, replacing each doubled quote with a single one.
+     */
+    private byte[] unquote(byte[] record, int start, int end) {
+        byte[] unquoted = new byte[end - start];
+        int length = 0;
+        for (int i = start + 1; i < end; i++) {
+            if (record[i] == quote) {
+                if (i + 1 < end && record[i + 1] == quote)
+                    i++;
+                else
+                    break;
+            }
+            unquoted[length++] = record[i];
+        }
+        return Arrays.copyOf(unquoted, length);
+    }
+
+    public static class DelimitedColumnBuilder {
+
+        private char delimiter = ',';
+        private char quote = '"';
+        private int index = 0;
+        private String name = null;
+        private boolean header = false;
+
+        /**
+         * Set the character separating the columns of a record, such as ',' or '\t'. By default, this is ','.
+         */
+        public DelimitedColumnBuilder setDelimiter(char delimiter) {
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        /**
+         * Set the character which quotes fields. By default, this is '"'.
+         */
+        public DelimitedColumnBuilder setQuote(char quote) {
+            this.quote = quote;
+            return this;
+        }
+
+        /**
+         * Choose the column by its index, counting from 0.
+         */
+        public DelimitedColumnBuilder setColumnIndex(int index) {
+            if (index < 0)
+                throw new IllegalArgumentException("Column index can't be negative");
+            this.index = index;
+            this.name = null;
+            return this;
+        }
+
+        /**
+         * Choose the column by its name in the header line, ignoring case and surrounding spaces. The input then
+         * always starts with a header.
+         */
+        public DelimitedColumnBuilder setColumnName(String name) {
+            this.name = Objects.requireNonNull(name, "Column name can't be null");
+            this.header = true;
+            return this;
+        }
+
+        /**
+         * If enabled, the first line of the input is a header and is skipped. By default, this is disabled unless the
+         * column is chosen by name.
+         */
+        public DelimitedColumnBuilder setHeader(boolean header) {
+            this.header = header || name != null;
+            return this;
+        }
+
+        public DelimitedColumn build() {
+            if (delimiter >= 0x80 || quote >= 0x80)
+                throw new IllegalArgumentException("Delimiter and quote must be ASCII characters");
+            if (delimiter == quote || delimiter == '\n' || delimiter == '\r')
+                throw new IllegalArgumentException("Delimiter can't be a quote or line end");
+            return new DelimitedColumn((byte) delimiter, (byte) quote, name == null ? index : -1, name, header);
+        }
+    }
+}
@@ -1,29 +1,31 @@
 package emails.processors;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
 
 import emails.analysis.ParsedEmail;
 import emails.constants.InvalidReason;
 
 /**
  * Holds contextual data for a single email.
+ *
+ * The context holds the offsets and flags found by an {@link EmailParser} while scanning the raw address. Each parsed
+ * string of a valid address is only built when its getter is first called, and is then kept for later calls. A context
+ * can be filled again by a parser for another address, which discards everything held for the previous address.
+ *
+ * The context also gives the offsets of the local part and domain in the input the address was parsed from. These are
+ * character offsets for an address parsed from a string, and byte offsets for one parsed from bytes.
  */
 public class EmailContext implements ParsedEmail {
 
-    Pattern domainPartPattern = Pattern.compile("^[a-zA-Z\\d]+[a-zA-Z\\d\\-]*[a-zA-Z\\d]+$");
-    Pattern anyLettersPattern = Pattern.compile("[a-zA-Z]+");
-    Pattern ipV4DomainPattern = Pattern.compile("^\\[([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\." +
-            "([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\]$");
-    Pattern ipV6DomainPatern = Pattern.compile("\\[ipv6\\:([a-f\\d:]+:+)+[a-f\\d]+\\]");
+    private CharSequence source;
+    private String rawEmailAddress;
+    private EmailParserConfig parser;
+    private AsciiBytes bytes;
+    private LowerCaseView domainView;
 
-    private final String rawEmailAddress;
-    List<String> localParts = new ArrayList<>();
-    List<String> domainParts = new ArrayList<>();
-    List<Character> currentPart = new ArrayList<>();
+    private int inputOffset;
+    private int inputAtIndex;
+    private int inputEnd;
 
     private String fullLocalPartWithComments;
     private String fullLocalPart;
@@ -31,249 +33,114 @@ public class EmailContext implements ParsedEmail {
     private String parsedLocalPart;
 
     private String domain;
-    private String domainWithComments;
+    private String parsedEmailAddress;
 
-    private boolean isValid = true;
+    private boolean isValid;
     private InvalidReason invalidReason;
 
-    private boolean hasDots;
-    private boolean hasQuotes;
-    private boolean hasComments;
+    boolean hasDots;
+    boolean hasQuotes;
+    boolean hasComments;
+
+    // Offsets into the raw email address, set while scanning
+    int atIndex;
+    int subAddressIndex;
+    boolean localPartParsed;
+
+    /**
+     * Creates an empty context, to be filled by {@link EmailParser#parse(String, EmailContext)}.
+     */
+    public EmailContext() {
+        reset(null, null, EmailParserConfig.standard());
+        setInvalid(InvalidReason.BLANK);
+    }
 
     public EmailContext(String email) {
         this(email, null, null);
     }
     public EmailContext(String email, EmailValidationConfig validator, EmailParserConfig parser) {
-        this.rawEmailAddress = email;
-        if (validator == null) validator = EmailValidationConfig.generic();
-        if (parser == null) parser = EmailParserConfig.standard();
-        if (email == null || email.length() == 0)
-            setInvalid(InvalidReason.BLANK);
-        else parseBaseEmailParts(email, validator, parser);
+        EmailParser.forCurrentThread(validator, parser).parse(email, this);
     }
 
-    private void addPart(String part, boolean domain) {
-        if (domain) domainParts.add(part);
-        else localParts.add(part);
+    AsciiBytes wrap(byte[] array, int offset, int length) {
+        if (bytes == null) bytes = new AsciiBytes();
+        return bytes.wrap(array, offset, length);
     }
 
-    private void addCurrentPart(boolean domain) {
-        if (!currentPart.isEmpty()) {
-            addPart(currentPart.stream().map(String::valueOf).collect(Collectors.joining()), domain);
-            currentPart = new ArrayList<>();
-        }
+    AsciiBytes wrap(ByteBuffer buffer, int offset, int length) {
+        if (bytes == null) bytes = new AsciiBytes();
+        return bytes.wrap(buffer, offset, length);
     }
 
     /**
-     * Parse a non-null email address for comments, quotes, dotted parts, and domain.
+     * Clears the context for a new address. The raw email address can be null when parsing bytes, in which case it is
+     * only decoded from the source if requested.
      */
-    private void parseBaseEmailParts(String email, EmailValidationConfig validator, EmailParserConfig parser) {
-        boolean isDomain = false;
-        boolean subAddressFound = false;
-        Character closeCharacter = null;
-        int atCount = 0;
-        for (char ch : email.toCharArray()) {
-            switch (ch) {
-                case '@':
-                    if (closeCharacter == null) {
-                        addCurrentPart(isDomain);
-                        isDomain = true;
-                        atCount++;
-                    } else currentPart.add(ch);
-                    break;
-                case '.':
-                    if (closeCharacter == null) {
-                        hasDots |= !isDomain;
-                        addCurrentPart(isDomain);
-                        addPart(String.valueOf(ch), isDomain);
-                    } else currentPart.add(ch);
-                    break;
-                case ')':
-                    currentPart.add(ch);
-                    if (closeCharacter == null) {
-                        setInvalid(InvalidReason.UNCLOSED_PARENTHESIS);
-                        return;
-                    }
-                    if (closeCharacter == ch) {
-                        addCurrentPart(isDomain);
-                        closeCharacter = null;
-                    }
-                    break;
-                case '"':
-                    currentPart.add(ch);
-                    if (closeCharacter != null && closeCharacter == ch) {
-                        if (currentPart.size() > 1 && currentPart.get(currentPart.size() - 2) == '\\')
-                            break;
-                        addCurrentPart(isDomain);
-                        closeCharacter = null;
-                    } else {
-                        closeCharacter = ch;
-                        hasQuotes = true;
-                    }
-                    break;
-                case '(':
-                    if (closeCharacter == null) {
-                        addCurrentPart(isDomain);
-                        hasComments = true;
-                        closeCharacter = ')';
-                    }
-                    currentPart.add(ch);
-                    break;
-                default:
-                    if (closeCharacter == null && !isDomain && !subAddressFound && parser.subAddressCharacters.contains(ch)) {
-                        subAddressFound = true;
-                        addCurrentPart(false);
-                        addPart(String.valueOf(ch), false);
-                    } else
-                        currentPart.add(ch);
-            }
-        }
-        if (!currentPart.isEmpty())
-            addCurrentPart(isDomain);
-        if (closeCharacter != null) {
-            setInvalid(closeCharacter == ')' ? InvalidReason.UNCLOSED_PARENTHESIS : InvalidReason.UNCLOSED_QUOTE);
-            return;
-        }
-
-        if (atCount == 0) setInvalid(InvalidReason.NO_AT_SYMBOL);
-        else if (atCount > 1) setInvalid(InvalidReason.MULTIPLE_AT_SYMBOLS);
-        else if (hasQuotes && !validator.allowQuotes)
-            setInvalid(InvalidReason.HAS_QUOTES);
-        else if (hasComments && !validator.allowComments)
-            setInvalid(InvalidReason.HAS_COMMENTS);
+    void reset(CharSequence source, String rawEmailAddress, EmailParserConfig parser) {
+        this.source = source;
+        this.rawEmailAddress = rawEmailAddress;
+        this.parser = parser;
+        fullLocalPartWithComments = null;
+        fullLocalPart = null;
+        localSubAddress = null;
+        parsedLocalPart = null;
+        domain = null;
+        parsedEmailAddress = null;
+        isValid = true;
+        invalidReason = null;
+        hasDots = false;
+        hasQuotes = false;
+        hasComments = false;
+        atIndex = -1;
+        subAddressIndex = -1;
+        localPartParsed = false;
+    }
 
-        if (isValid) parseLocalPart(validator, parser);
-        if (isValid) parseDomain(validator, parser);
+    void setInputRange(int offset, int atIndex, int end) {
+        this.inputOffset = offset;
+        this.inputAtIndex = atIndex;
+        this.inputEnd = end;
     }
 
-    private void setInvalid(InvalidReason reason) {
+    void setInvalid(InvalidReason reason) {
         this.isValid = false;
         this.invalidReason = reason;
     }
 
-    private void parseLocalPart(EmailValidationConfig validator, EmailParserConfig parser) {
-        if (!validator.allowDots && localParts.contains(".")) {
-            setInvalid(InvalidReason.HAS_DOTS);
-            return;
-        }
-        StringBuilder localFullComments = hasComments ? new StringBuilder() : null;
-        StringBuilder localFull = new StringBuilder();
-        StringBuilder parsedLocal = new StringBuilder();
-        StringBuilder subAddress = new StringBuilder();
-        boolean isSubAddress = false;
-        for (String part : localParts) {
-            char startChar = part.charAt(0);
-            if (localFullComments != null) localFullComments.append(part);
-            boolean isComment = startChar == '(';
-            boolean isQuote = startChar == '"';
-            isSubAddress |= parser.subAddressCharacters.contains(startChar);
-
-            if (isComment || isQuote) {
-                Matcher matcher = validator.allowedSpecialPattern.matcher(part.substring(1, part.length() - 1));
-                if (!matcher.find()) {
-                    setInvalid(InvalidReason.INVALID_CHARACTERS);
-                    return;
-                }
-            } else if (startChar != '.') {
-                Matcher matcher = validator.allowedPrintablePattern.matcher(part);
-                if (!matcher.find()) {
-                    setInvalid(InvalidReason.INVALID_CHARACTERS);
-                    return;
-                }
-            }
-
-            if (!isComment) localFull.append(part);
-            if (isSubAddress) subAddress.append(part);
-
-            if ((!isComment || parser.includeComments) && (!isSubAddress || parser.includeSubAddresses))
-                parsedLocal.append(part);
-
-        }
-
-        if (localFullComments != null)
-            fullLocalPartWithComments = localFullComments.toString();
-        fullLocalPart = localFull.toString();
-        parsedLocalPart = parser.lowerCase ? parsedLocal.toString().toLowerCase() : parsedLocal.toString();
-        localSubAddress = parser.lowerCase ? subAddress.toString().toLowerCase() : subAddress.toString();
+    private String withoutComments(int start, int end, boolean keepComments) {
+        if (!hasComments || keepComments)
+            return source.subSequence(start, end).toString();
+        return EmailParser.appendWithoutComments(new StringBuilder(end - start), source, start, end).toString();
+    }
 
-        if (!validator.allowSubAddresses && localSubAddress.length() > 0)
-            setInvalid(InvalidReason.HAS_SUB_ADDRESS);
-        else if (fullLocalPartWithComments != null && fullLocalPartWithComments.length() > 64 || fullLocalPart.length() > 64)
-            setInvalid(InvalidReason.LOCAL_PART_TOO_LONG);
+    /**
+     * Returns the offset in the parsed input where the local part starts, or -1 if the email address is invalid.
+     */
+    public int getLocalPartStart() {
+        return isValid ? inputOffset : -1;
     }
 
-    private void parseDomain(EmailValidationConfig validator, EmailParserConfig parser) {
-        StringBuilder domainCommentsBuilder = hasComments ? new StringBuilder() : null;
-        StringBuilder domainBuilder = new StringBuilder();
-        Matcher matcher;
-        boolean hasInvalidCharacters = false;
-
-        for (String part : domainParts) {
-            char startChar = part.charAt(0);
-            boolean isComment = startChar == '(';
-            boolean isDot = startChar == '.';
-            if (domainCommentsBuilder != null) domainCommentsBuilder.append(part);
-            if (startChar == '.' && domainBuilder.length() > 0 && domainBuilder.charAt(domainBuilder.length() - 1) == startChar) {
-                setInvalid(InvalidReason.CONSECUTIVE_DOTS);
-                return;
-            }
-            if (!hasComments || parser.includeComments || !isComment) {
-                if (startChar == '"') {
-                    setInvalid(InvalidReason.DOMAIN_QUOTES);
-                    return;
-                }
-                domainBuilder.append(part);
-            }
-            if (!isComment && !isDot) {
-                if (part.charAt(0) == '-' || part.charAt(part.length() - 1) == '-') {
-                    setInvalid(InvalidReason.DOMAIN_EDGE_HYPHEN);
-                    return;
-                }
-
-                matcher = anyLettersPattern.matcher(part);
-                hasInvalidCharacters |= !matcher.find();
-                matcher = domainPartPattern.matcher(part);
-                hasInvalidCharacters |= (!matcher.find() && part.length() > 1);
-            }
-        }
-        if (domainBuilder.charAt(0) == '.' || domainBuilder.charAt(domainBuilder.length() - 1) == '.') {
-            setInvalid(InvalidReason.EDGE_DOT);
-            return;
-        }
-        if (domainBuilder.charAt(0) == '-' || domainBuilder.charAt(domainBuilder.length() - 1) == '-') {
-            setInvalid(InvalidReason.DOMAIN_EDGE_HYPHEN);
-            return;
-        }
+    /**
+     * Returns the offset in the parsed input where the local part ends, which is the offset of the '@' symbol, or -1
+     * if the email address is invalid. The local part includes any comments.
+     */
+    public int getLocalPartEnd() {
+        return isValid ? inputAtIndex : -1;
+    }
 
-        if (domainCommentsBuilder != null) domainWithComments = domainCommentsBuilder.toString();
-        domain = domainBuilder.toString().toLowerCase();
-
-        boolean isIPDomain = false;
-        matcher = ipV4DomainPattern.matcher(domain);
-        if (matcher.find()) {
-            isIPDomain = true;
-            if (!validator.allowV4IPDomains) {
-                setInvalid(InvalidReason.V4_IP_DOMAIN);
-                return;
-            }
-        } else {
-            matcher = ipV6DomainPatern.matcher(domain);
-            if (matcher.find()) {
-                isIPDomain = true;
-                if (!validator.allowV6IPDomains) {
-                    setInvalid(InvalidReason.V6_IP_DOMAIN);
-                    return;
-                }
-            }
-        }
-        if (!isIPDomain && hasInvalidCharacters) {
-            setInvalid(InvalidReason.INVALID_CHARACTERS);
-            return;
-        }
+    /**
+     * Returns the offset in the parsed input where the domain starts, or -1 if the email address is invalid.
+     */
+    public int getDomainStart() {
+        return isValid ? inputAtIndex + 1 : -1;
+    }
 
-        if (!validator.allowSingleNameDomains && !domain.contains(".")) {
-            setInvalid(InvalidReason.NO_TOP_LEVEL_DOMAIN);
-        }
+    /**
+     * Returns the offset in the parsed input where the domain ends, or -1 if the email address is invalid. The domain
+     * includes any comments.
+     */
+    public int getDomainEnd() {
+        return isValid ? inputEnd : -1;
     }
 
     @Override
@@ -298,7 +165,7 @@ public class EmailContext implements ParsedEmail {
 
     @Override
     public boolean hasSubAddress() {
-        return localSubAddress != null && localSubAddress.length() > 0;
+        return localPartParsed && subAddressIndex >= 0;
     }
 
     @Override
@@ -308,41 +175,118 @@ public class EmailContext implements ParsedEmail {
 
     @Override
     public String getParsedEmailAddress() {
-        return !isValid ? null : String.format("%s@%s", parsedLocalPart, domain);
+        if (parsedEmailAddress == null && isValid)
+            parsedEmailAddress = getParsedLocalPart() + '@' + getDomain();
+        return parsedEmailAddress;
     }
 
     @Override
     public String getFullEmailAddress() {
-        return !isValid ? null : String.format("%s@%s", parsedLocalPart, domain);
+        return getParsedEmailAddress();
     }
 
     @Override
     public String getParsedLocalPart() {
+        if (parsedLocalPart == null && isValid) {
+            int end = subAddressIndex >= 0 && !parser.includeSubAddresses ? subAddressIndex : atIndex;
+            String parsedLocal = withoutComments(0, end, parser.includeComments);
+            parsedLocalPart = parser.lowerCase ? parsedLocal.toLowerCase() : parsedLocal;
+        }
         return parsedLocalPart;
     }
 
     @Override
     public String getFullLocalPart() {
+        if (fullLocalPart == null && isValid)
+            fullLocalPart = withoutComments(0, atIndex, false);
         return fullLocalPart;
     }
 
     @Override
     public String getSubAddress() {
+        if (localSubAddress == null && isValid) {
+            String subAddress = subAddressIndex >= 0 ? source.subSequence(subAddressIndex, atIndex).toString() : "";
+            localSubAddress = parser.lowerCase ? subAddress.toLowerCase() : subAddress;
+        }
         return localSubAddress;
     }
 
     @Override
     public String getDomain() {
+        if (domain == null && isValid)
+            domain = withoutComments(atIndex + 1, source.length(), parser.includeComments).toLowerCase();
         return domain;
     }
 
+    /**
+     * Returns the domain as a lower case view of the parsed input when it is ASCII without comments, so it can be
+     * looked up without creating a string. Otherwise the domain string is returned.
+     */
+    @Override
+    public CharSequence getDomainCharacters() {
+        if (domain != null || !isValid || hasComments)
+            return getDomain();
+        int start = atIndex + 1;
+        int end = source.length();
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) >= 0x80)
+                return getDomain();
+        }
+        if (domainView == null) domainView = new LowerCaseView();
+        return domainView.wrap(source, start, end);
+    }
+
     @Override
     public String getRawEmailAddress() {
+        if (rawEmailAddress == null && source != null)
+            rawEmailAddress = source.toString();
         return rawEmailAddress;
     }
 
     @Override
     public String getFullLocalPartWithComments() {
+        if (fullLocalPartWithComments == null && isValid && hasComments)
+            fullLocalPartWithComments = source.subSequence(0, atIndex).toString();
         return fullLocalPartWithComments;
     }
+
+    /**
+     * A reusable view of a range of ASCII characters as lower case.
+     */
+    private static class LowerCaseView implements CharSequence {
+
+        private CharSequence source;
+        private int start;
+        private int length;
+
+        LowerCaseView wrap(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.length = end - start;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            char c = source.charAt(start + index);
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            char[] characters = new char[length];
+            for (int i = 0; i < length; i++) characters[i] = charAt(i);
+            return new String(characters);
+        }
+    }
 }
@@ -0,0 +1,220 @@
+package emails.processors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import emails.constants.FilterOutput;
+
+/**
+ * Filters UTF-8 email addresses, one per line, from an input stream to an output stream, such as standard input and
+ * output in a shell pipeline. Input is read a large block of bytes at a time and each line is parsed in place, so no
+ * string is created for a line unless its parsed address is written. Output is gathered in a block of the same size
+ * and only written out when the block is full or the input ends.
+ *
+ * Lines end at '\n', '\r' or "\r\n" when read, and are always written ending with '\n'. With a
+ * {@link DelimitedColumn}, only the address in that column of each line is parsed, and a header line is written
+ * unchanged along with accepted or rejected lines. A byte order mark at the start of each stream of delimited records
+ * is skipped rather than written. A filter can be reused for further streams, but shouldn't be shared
+ * between threads.
+ *
+ * Reading stops as soon as writing fails, such as when the disk is full or a downstream pipe is closed. A
+ * {@link PrintStream} hides such failures, so its error state is checked after each block is written.
+ */
+public class EmailLineFilter {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final EmailParser parser;
+    private final FilterOutput output;
+    private final EmailContext email = new EmailContext();
+    private DelimitedColumn column;
+
+    // Column found from the header of the current stream, or null while the header is still to be read
+    private DelimitedColumn streamColumn;
+    private boolean firstLine;
+
+    private byte[] input;
+    private final byte[] outputBlock;
+    private int outputLength;
+
+    private long linesRead;
+    private long linesWritten;
+    private long bytesRead;
+
+    public EmailLineFilter(EmailValidationConfig validator, EmailParserConfig parser, FilterOutput output) {
+        this(validator, parser, output, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a filter which reads and writes blocks of the given size in bytes. Lines longer than a block are read
+     * into a larger one.
+     */
+    public EmailLineFilter(EmailValidationConfig validator, EmailParserConfig parser, FilterOutput output, int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive");
+        this.parser = new EmailParser(validator, parser);
+        this.output = output == null ? FilterOutput.NORMALIZED : output;
+        this.input = new byte[blockSize];
+        this.outputBlock = new byte[blockSize];
+    }
+
+    /**
+     * Reads the address from the given column of each line, rather than the whole line, or from the whole line if
+     * the column is null.
+     */
+    public EmailLineFilter setColumn(DelimitedColumn column) {
+        this.column = column;
+        return this;
+    }
+
+    /**
+     * Reads every line of the input, writing the lines chosen by the filter output to the output, which is flushed
+     * once the input ends. Neither stream is closed.
+     *
+     * @throws IOException if reading or writing fails, without reading the rest of the input
+     */
+    public void filter(InputStream in, OutputStream out) throws IOException {
+        int filled = 0;
+        boolean ended = false;
+        streamColumn = column == null || column.hasHeader() ? null : column;
+        firstLine = true;
+        while (!ended) {
+            if (filled == input.length)
+                input = Arrays.copyOf(input, input.length * 2);
+            int read = in.read(input, filled, input.length - filled);
+            ended = read < 0;
+            if (read > 0) {
+                bytesRead += read;
+                filled += read;
+            }
+            int lineStart = 0;
+            for (int i = 0; i < filled; i++) {
+                byte b = input[i];
+                if (b != '\n' && b != '\r')
+                    continue;
+                // A '\r' at the end of the block may be followed by a '\n' in the next read
+                if (b == '\r' && i + 1 == filled && !ended)
+                    break;
+                filterLine(lineStart, i - lineStart, out);
+                if (b == '\r' && i + 1 < filled && input[i + 1] == '\n')
+                    i++;
+                lineStart = i + 1;
+            }
+            if (ended && lineStart < filled) {
+                filterLine(lineStart, filled - lineStart, out);
+                lineStart = filled;
+            }
+            System.arraycopy(input, lineStart, input, 0, filled - lineStart);
+            filled -= lineStart;
+        }
+        writeBlock(out);
+        out.flush();
+        checkError(out);
+    }
+
+    private void filterLine(int start, int length, OutputStream out) throws IOException {
+        if (firstLine && column != null) {
+            int byteOrderMark = DelimitedColumn.byteOrderMarkLength(input, start, length);
+            start += byteOrderMark;
+            length -= byteOrderMark;
+        }
+        firstLine = false;
+        if (column != null && streamColumn == null) {
+            streamColumn = column.forHeader(input, start, length);
+            if (output != FilterOutput.NORMALIZED) {
+                write(input, start, length, out);
+                writeByte('\n', out);
+            }
+            return;
+        }
+        linesRead++;
+        boolean valid = (streamColumn != null ? streamColumn.parse(parser, input, start, length, email)
+                : parser.parse(input, start, length, email)).isValid();
+        if (output == FilterOutput.NORMALIZED) {
+            if (valid)
+                writeParsedAddress(email.getParsedEmailAddress(), out);
+        } else if (valid == (output == FilterOutput.ACCEPTED)) {
+            write(input, start, length, out);
+            writeByte('\n', out);
+            linesWritten++;
+        }
+    }
+
+    private void writeParsedAddress(String emailAddress, OutputStream out) throws IOException {
+        int length = emailAddress.length();
+        if (outputLength + length + 1 > outputBlock.length)
+            writeBlock(out);
+        if (length + 1 > outputBlock.length) {
+            byte[] bytes = emailAddress.getBytes(StandardCharsets.UTF_8);
+            write(bytes, 0, bytes.length, out);
+        } else {
+            // Copy ASCII characters straight into the block, only encoding addresses which need it
+            int i = 0;
+            for (; i < length; i++) {
+                char c = emailAddress.charAt(i);
+                if (c >= 0x80)
+                    break;
+                outputBlock[outputLength + i] = (byte) c;
+            }
+            if (i == length)
+                outputLength += length;
+            else {
+                byte[] bytes = emailAddress.getBytes(StandardCharsets.UTF_8);
+                write(bytes, 0, bytes.length, out);
+            }
+        }
+        writeByte('\n', out);
+        linesWritten++;
+    }
+
+    private void write(byte[] bytes, int start, int length, OutputStream out) throws IOException {
+        if (outputLength + length > outputBlock.length) {
+            writeBlock(out);
+            if (length > outputBlock.length) {
+                out.write(bytes, start, length);
+                checkError(out);
+                return;
+            }
+        }
+        System.arraycopy(bytes, start, outputBlock, outputLength, length);
+        outputLength += length;
+    }
+
+    private void writeByte(char c, OutputStream out) throws IOException {
+        if (outputLength == outputBlock.length)
+            writeBlock(out);
+        outputBlock[outputLength++] = (byte) c;
+    }
+
+    private void writeBlock(OutputStream out) throws IOException {
+        if (outputLength > 0) {
+            out.write(outputBlock, 0, outputLength);
+            checkError(out);
+        }
+        outputLength = 0;
+    }
+
+    private static void checkError(OutputStream out) throws IOException {
+        if (out instanceof PrintStream && ((PrintStream) out).checkError())
+            throw new IOException("Error writing filtered lines");
+    }
+
+    /**
+     * Returns the number of lines read by the filter so far, across every stream filtered.
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
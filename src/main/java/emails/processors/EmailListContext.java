@@ -1,78 +1,283 @@
 package emails.processors;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import emails.analysis.BloomFilter;
 import emails.analysis.DomainAnalysis;
+import emails.analysis.DomainCounter;
 import emails.analysis.EmailAddressAnalysis;
-import emails.analysis.ParsedEmail;
-import emails.constants.EmailListOrder;
+import emails.analysis.EmailListAnalysis;
+import emails.analysis.HeavyHitters;
+import emails.constants.EmailListOutput;
 
 /**
  * Holds contextual information for the processing a list of emails. based on configuration settings.
+ *
+ * Each result method parses the whole list. When several results are needed from the same list,
+ * {@link #analyse(EmailListOutput...)} parses each address once and collects all of them together. The same analysis
+ * can be split across threads with {@link #analyseParallel(EmailListOutput...)}, which gives identical results.
+ *
+ * A context can also read email addresses as they arrive from an iterator, stream, reader or file, without holding the
+ * whole list in memory. Addresses are then parsed and added to the results one at a time, so memory use depends on
+ * the results collected rather than the size of the input. Contexts over an iterator, stream or reader can only be
+ * used for a single result, while a context over a file reads it again for each result.
  */
 public class EmailListContext {
 
     private final EmailValidationConfig validationConfig;
     private final EmailParserConfig parserConfig;
 
-    private final Collection<String> emailAddresses;
+    // Addresses as a stream which is opened for each result, and as a collection if one was given
+    private final Supplier<Stream<String>> emailAddresses;
+    private final Collection<String> emailList;
+
+    // Smallest section of the list analysed by a single task when analysing in parallel
+    private static final int MIN_PARALLEL_SECTION = 1024;
 
     public EmailListContext(Collection<String> emailAddresses) {
         this(emailAddresses, null, null);
     }
 
     public EmailListContext(Collection<String> emailAddresses, EmailValidationConfig validator, EmailParserConfig parser) {
+        this(emailAddresses == null ? Collections.emptyList() : emailAddresses, null, validator, parser);
+    }
+
+    private EmailListContext(Collection<String> emailList, Supplier<Stream<String>> emailAddresses,
+                             EmailValidationConfig validator, EmailParserConfig parser) {
         this.validationConfig = validator == null ? EmailValidationConfig.generic() : validator;
         this.parserConfig = parser == null ? EmailParserConfig.standard() : parser;
-        this.emailAddresses = emailAddresses == null ? Collections.emptyList() : emailAddresses;
+        this.emailList = emailList;
+        this.emailAddresses = emailList != null ? emailList::stream : emailAddresses;
+    }
+
+    /**
+     * Creates a context which reads email addresses from the iterator as each result is found. The iterator is only
+     * read once, so the context can only be used for a single result.
+     */
+    public static EmailListContext fromIterator(Iterator<String> emailAddresses, EmailValidationConfig validator,
+                                                EmailParserConfig parser) {
+        if (emailAddresses == null)
+            return new EmailListContext(null, validator, parser);
+        return new EmailListContext(null, () -> StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(emailAddresses, Spliterator.ORDERED), false), validator, parser);
+    }
+
+    /**
+     * Creates a context which reads email addresses from the stream as each result is found. The stream is only
+     * read once, so the context can only be used for a single result.
+     */
+    public static EmailListContext fromStream(Stream<String> emailAddresses, EmailValidationConfig validator,
+                                              EmailParserConfig parser) {
+        if (emailAddresses == null)
+            return new EmailListContext(null, validator, parser);
+        return new EmailListContext(null, () -> emailAddresses, validator, parser);
+    }
+
+    /**
+     * Creates a context which reads email addresses from the reader, one per line, as each result is found. The
+     * reader is only read once, so the context can only be used for a single result, and is not closed afterwards.
+     */
+    public static EmailListContext fromReader(Reader reader, EmailValidationConfig validator, EmailParserConfig parser) {
+        if (reader == null)
+            return new EmailListContext(null, validator, parser);
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return new EmailListContext(null, lines::lines, validator, parser);
+    }
+
+    /**
+     * Creates a context which reads UTF-8 email addresses from the file, one per line. The file is opened and read
+     * again for each result found from the context, and is decompressed as it is read if it is gzip-compressed. Any
+     * error reading the file is thrown as an {@link UncheckedIOException}.
+     */
+    public static EmailListContext fromFile(Path file, EmailValidationConfig validator, EmailParserConfig parser) {
+        if (file == null)
+            return new EmailListContext(null, validator, parser);
+        return new EmailListContext(null, () -> lines(file), validator, parser);
+    }
+
+    /**
+     * Creates a context which reads UTF-8 email addresses from a column of the delimited records in the file, one
+     * per line, as {@link #fromFile(Path, EmailValidationConfig, EmailParserConfig)} reads whole lines.
+     */
+    public static EmailListContext fromFile(Path file, DelimitedColumn column, EmailValidationConfig validator,
+                                            EmailParserConfig parser) {
+        if (file == null || column == null)
+            return fromFile(file, validator, parser);
+        return new EmailListContext(null, () -> column.values(lines(file)), validator, parser);
     }
 
-    private List<String> validateEmailAddresses() {
-        List<EmailAddressAnalysis> validEmailAddresses = new ArrayList<>();
-        for (String emailAddress : emailAddresses) {
-            ParsedEmail email = new EmailContext(emailAddress, validationConfig, parserConfig);
-            if (email.isValid())
-                validEmailAddresses.add(new EmailAddressAnalysis(email));
+    private static Stream<String> lines(Path file) {
+        try {
+            if (!CompressedInput.isCompressed(file))
+                return Files.lines(file, StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(CompressedInput.open(file),
+                    StandardCharsets.UTF_8));
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return validEmailAddresses.stream().sorted((o1, o2) -> o1.compareTo(o2, parserConfig.order))
-                .map(EmailAddressAnalysis::getParsedEmailAddress)
-                .collect(Collectors.toList());
-    }
-
-    private Map<String, EmailAddressAnalysis> deduplicateAndAnalyse() {
-        Map<String, EmailAddressAnalysis> analysedEmails = new HashMap<>();
-        for (String emailAddress : emailAddresses) {
-            ParsedEmail email = new EmailContext(emailAddress, validationConfig, parserConfig);
-            if (email.isValid()) {
-                if (!analysedEmails.containsKey(email.getParsedEmailAddress()))
-                    analysedEmails.put(email.getParsedEmailAddress(), new EmailAddressAnalysis(email));
-                else
-                    analysedEmails.get(email.getParsedEmailAddress()).addParsedEmail(email);
-            }
+    }
+
+    /**
+     * Parses every email address in the list once, collecting only the chosen outputs, based on the parsing and
+     * validation configurations set.
+     */
+    public EmailListAnalysis analyse(EmailListOutput... outputs) {
+        EmailListAnalysis analysis = newAnalysis(Arrays.asList(outputs), null, parserConfig.duplicateFilterSize);
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        try (Stream<String> addresses = emailAddresses.get()) {
+            addresses.forEachOrdered(emailAddress -> analysis.addParsedEmail(parser.parse(emailAddress, email)));
         }
-        return analysedEmails;
+        return analysis;
     }
 
-    private List<String> deduplicateEmailAddresses() {
-        Map<String, EmailAddressAnalysis> analysedEmails = deduplicateAndAnalyse();
-        return analysedEmails.values().stream()
-                .sorted((o1, o2) -> o1.compareTo(o2, parserConfig.order))
-                .map(EmailAddressAnalysis::getParsedEmailAddress)
-                .collect(Collectors.toList());
+    /**
+     * Creates an analysis for the chosen outputs, with a duplicate filter if one is configured. The filter is sized for
+     * the number of addresses the analysis can add, up to the configured size, so a section of a parallel analysis
+     * only has a filter as large as its section.
+     */
+    private EmailListAnalysis newAnalysis(List<EmailListOutput> outputs, ForkJoinPool pool, long maxAddresses) {
+        EmailListAnalysis analysis = new EmailListAnalysis(outputs, parserConfig.order, parserConfig.maxResults,
+                parserConfig.domainRetention, parserConfig.approximatePrecision, pool);
+        long filterSize = Math.min(parserConfig.duplicateFilterSize, maxAddresses);
+        if (filterSize > 0 && (outputs.contains(EmailListOutput.VALID_DEDUPLICATE)
+                || outputs.contains(EmailListOutput.DEDUPLICATED_EMAIL_ADDRESSES)))
+            analysis.setDuplicateFilter(new BloomFilter(filterSize, parserConfig.duplicateFilterRate));
+        return analysis;
+    }
+
+    /**
+     * Returns the valid email addresses in the list with duplicates removed, in the order they first appear, using
+     * only a Bloom filter sized for the expected number of unique addresses. Memory use is fixed by the filter size,
+     * but unique addresses are wrongly dropped as duplicates at about the false positive rate. Addresses are parsed as
+     * the stream is read, and the stream is sequential.
+     */
+    public Stream<String> streamApproximateDeduplicate(long expectedAddresses, double falsePositiveRate) {
+        BloomFilter filter = new BloomFilter(expectedAddresses, falsePositiveRate);
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        return emailAddresses.get().sequential()
+                .map(emailAddress -> parser.parse(emailAddress, email).isValid()
+                        && filter.put(email.getParsedEmailAddress()) ? email.getParsedEmailAddress() : null)
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * Returns the valid email addresses in the list with duplicates removed, as {@link #getValidDeduplicate()} does,
+     * without needing to hold every address in memory. Once the addresses held pass the memory budget in bytes, they
+     * are written to sorted temporary files which are merged as the results are read. The stream must be closed to
+     * delete the temporary files. The memory budget must be positive, and any error using the files is thrown as an
+     * {@link UncheckedIOException}.
+     */
+    public Stream<String> streamValidDeduplicate(long memoryBudget) {
+        ExternalDeduplication deduplication = new ExternalDeduplication(parserConfig.order, memoryBudget);
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        try (Stream<String> addresses = emailAddresses.get()) {
+            addresses.forEachOrdered(emailAddress -> {
+                if (parser.parse(emailAddress, email).isValid())
+                    deduplication.add(email.getParsedEmailAddress(), email.getDomain());
+            });
+            return deduplication.stream();
+        } catch (RuntimeException e) {
+            deduplication.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the valid email addresses in the list for each domain, without keeping anything else about them.
+     */
+    public DomainCounter countDomains() {
+        DomainCounter counter = new DomainCounter();
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        try (Stream<String> addresses = emailAddresses.get()) {
+            addresses.forEachOrdered(emailAddress -> counter.addParsedEmail(parser.parse(emailAddress, email)));
+        }
+        return counter;
+    }
+
+    /**
+     * Finds the most frequent domains of the valid email addresses in the list using a fixed number of counters, so
+     * memory use doesn't grow with the number of distinct domains. Counts are estimates with error bounds.
+     */
+    public HeavyHitters findHeavyDomains(int capacity) {
+        HeavyHitters heavyHitters = new HeavyHitters(capacity);
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        try (Stream<String> addresses = emailAddresses.get()) {
+            addresses.forEachOrdered(emailAddress -> heavyHitters.addParsedEmail(parser.parse(emailAddress, email)));
+        }
+        return heavyHitters;
+    }
+
+    /**
+     * Performs the same analysis as {@link #analyse(EmailListOutput...)}, splitting the list into sections which are
+     * analysed by the threads of the common fork/join pool. Results for each section are merged in list order, so the
+     * results and their ordering are identical to analysing the list on a single thread.
+     */
+    public EmailListAnalysis analyseParallel(EmailListOutput... outputs) {
+        return analyseParallel(ForkJoinPool.commonPool(), outputs);
+    }
+
+    /**
+     * Performs the same analysis as {@link #analyse(EmailListOutput...)}, splitting the list into sections which are
+     * analysed by the threads of the given pool. Results for each section are merged in list order, so the results and
+     * their ordering are identical to analysing the list on a single thread. Addresses read from an iterator, stream,
+     * reader or file are all read into memory before being split.
+     */
+    public EmailListAnalysis analyseParallel(ForkJoinPool pool, EmailListOutput... outputs) {
+        List<String> addresses;
+        if (emailList instanceof List && emailList instanceof RandomAccess)
+            addresses = (List<String>) emailList;
+        else if (emailList != null)
+            addresses = new ArrayList<>(emailList);
+        else {
+            try (Stream<String> lines = emailAddresses.get()) {
+                addresses = lines.collect(Collectors.toList());
+            }
+        }
+        int sectionSize = Math.max(MIN_PARALLEL_SECTION, addresses.size() / (pool.getParallelism() * 4));
+        return pool.invoke(new AnalysisTask(pool, addresses, 0, addresses.size(), sectionSize, Arrays.asList(outputs)));
     }
 
     public List<String> getValid() {
-        return validateEmailAddresses();
+        return analyse(EmailListOutput.VALID).getValid();
     }
 
     public List<String> getValidDeduplicate() {
-        return deduplicateEmailAddresses();
+        return analyse(EmailListOutput.VALID_DEDUPLICATE).getValidDeduplicate();
     }
 
     /**
@@ -80,21 +285,7 @@ public class EmailListContext {
      * the parsing and validation configurations set.
      */
     public List<DomainAnalysis> analyseDomains() {
-        Map<String, DomainAnalysis> domainAnalysis = new HashMap<>();
-        for (String emailAddress : emailAddresses) {
-            ParsedEmail email = new EmailContext(emailAddress, validationConfig, parserConfig);
-            if (email.isValid()) {
-                if (!domainAnalysis.containsKey(email.getDomain()))
-                    domainAnalysis.put(email.getDomain(), new DomainAnalysis(email));
-                else
-                    domainAnalysis.get(email.getDomain()).addParsedEmail(email);
-            }
-        }
-
-        List<DomainAnalysis> analysedDomains = domainAnalysis.values().stream().sorted((o1, o2) -> o1.compareTo(o2, parserConfig.order)).collect(Collectors.toList());
-        if (parserConfig.order == EmailListOrder.OCCURRENCES && parserConfig.maxResults != null && analysedDomains.size() > parserConfig.maxResults)
-            analysedDomains = analysedDomains.subList(0, parserConfig.maxResults);
-        return analysedDomains;
+        return analyse(EmailListOutput.DOMAINS).getDomains();
     }
 
     /**
@@ -102,26 +293,54 @@ public class EmailListContext {
      * validation configurations set. Duplicates are NOT removed.
      */
     public List<EmailAddressAnalysis> analyseEmailAddresses() {
-        List<EmailAddressAnalysis> validEmailAddresses = new ArrayList<>();
-        for (String emailAddress : emailAddresses) {
-            ParsedEmail email = new EmailContext(emailAddress, validationConfig, parserConfig);
-            if (email.isValid())
-                validEmailAddresses.add(new EmailAddressAnalysis(email));
-        }
-        validEmailAddresses = validEmailAddresses.stream().sorted((o1, o2) -> o1.compareTo(o2, parserConfig.order)).collect(Collectors.toList());
-        if (parserConfig.order == EmailListOrder.OCCURRENCES && parserConfig.maxResults != null && validEmailAddresses.size() > parserConfig.maxResults)
-            validEmailAddresses = validEmailAddresses.subList(0, parserConfig.maxResults);
-        return validEmailAddresses;
+        return analyse(EmailListOutput.EMAIL_ADDRESSES).getEmailAddresses();
     }
 
     /**
-     * Analyses emails addresses and return the full analysis results for each email address, based on the parsing and
-     * validation configurations set. Duplicates are removed.
+     * Analyses a section of the list, splitting it in half until it is small enough to analyse directly. The analysis
+     * of the first half is always kept and has the second half merged into it, so addresses are combined in the same
+     * order as a single pass over the list.
      */
-    private List<EmailAddressAnalysis> deduplicateAndAnalyseEmailAddresses() {
-        Map<String, EmailAddressAnalysis> analysedEmails = deduplicateAndAnalyse();
-        return analysedEmails.values().stream()
-                .sorted((o1, o2) -> o1.compareTo(o2, parserConfig.order)).collect(Collectors.toList());
+    private class AnalysisTask extends RecursiveTask<EmailListAnalysis> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ForkJoinPool pool;
+        private final List<String> addresses;
+        private final int start;
+        private final int end;
+        private final int sectionSize;
+        private final List<EmailListOutput> outputs;
+
+        AnalysisTask(ForkJoinPool pool, List<String> addresses, int start, int end, int sectionSize,
+                     List<EmailListOutput> outputs) {
+            this.pool = pool;
+            this.addresses = addresses;
+            this.start = start;
+            this.end = end;
+            this.sectionSize = sectionSize;
+            this.outputs = outputs;
+        }
+
+        @Override
+        protected EmailListAnalysis compute() {
+            if (end - start <= sectionSize) {
+                EmailListAnalysis analysis = newAnalysis(outputs, pool, end - start);
+                EmailParser parser = EmailParser.forCurrentThread(validationConfig, parserConfig);
+                EmailContext email = new EmailContext();
+                for (int i = start; i < end; i++) {
+                    analysis.addParsedEmail(parser.parse(addresses.get(i), email));
+                }
+                return analysis;
+            }
+            int middle = (start + end) >>> 1;
+            AnalysisTask first = new AnalysisTask(pool, addresses, start, middle, sectionSize, outputs);
+            AnalysisTask second = new AnalysisTask(pool, addresses, middle, end, sectionSize, outputs);
+            second.fork();
+            EmailListAnalysis analysis = first.compute();
+            analysis.merge(second.join());
+            return analysis;
+        }
     }
 
 }
@@ -0,0 +1,569 @@
+package emails.processors;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import emails.constants.InvalidReason;
+
+/**
+ * Parses and validates single email addresses against one validation and parser configuration.
+ *
+ * A parser can be reused for any number of email addresses, and can fill the same {@link EmailContext} each time so
+ * that parsing an address allocates nothing beyond the strings requested from the result. The address is parsed in a
+ * single pass over the raw string. Parts of the address (dotted parts, quotes, comments and sub-addresses) are tracked
+ * as offsets into the raw string and validated as they are found. Most addresses in practice have no quotes or
+ * comments, so these are first checked by a shorter routine, and only parsed in full if that can't show them to be
+ * valid.
+ *
+ * Addresses can also be parsed directly from UTF-8 bytes, in a byte array or buffer, without first being decoded into a
+ * string. The result then only creates strings for the parts requested from it. Addresses containing non-ASCII bytes
+ * are decoded before parsing, so they give the same results as the equivalent string.
+ *
+ * A parser holds state while parsing, so a single parser should only be used by one thread at a time.
+ * {@link #forCurrentThread(EmailValidationConfig, EmailParserConfig)} provides a parser for the calling thread.
+ */
+public class EmailParser {
+
+    private static final int MAX_LOCAL_PART_LENGTH = 64;
+    private static final int MAX_THREAD_PARSERS = 16;
+
+    private static final ThreadLocal<Map<EmailValidationConfig, Map<EmailParserConfig, EmailParser>>> threadParsers =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private final EmailValidationConfig validator;
+    private final EmailParserConfig parser;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    // State of the address currently being parsed, reset for each address
+    private EmailContext result;
+    private boolean localInvalidCharacters;
+    private InvalidReason domainInvalidReason;
+    private boolean domainInvalidCharacters;
+    private boolean domainEmpty;
+    private char domainFirstCharacter;
+    private char domainLastCharacter;
+
+    public EmailParser(EmailValidationConfig validator, EmailParserConfig parser) {
+        this.validator = validator == null ? EmailValidationConfig.generic() : validator;
+        this.parser = parser == null ? EmailParserConfig.standard() : parser;
+    }
+
+    /**
+     * Returns a parser for the given configuration which is only used by the calling thread. Parsers are kept for each
+     * thread, so repeated calls with the same configuration return the same parser.
+     */
+    public static EmailParser forCurrentThread(EmailValidationConfig validator, EmailParserConfig parser) {
+        if (validator == null) validator = EmailValidationConfig.generic();
+        if (parser == null) parser = EmailParserConfig.standard();
+        Map<EmailValidationConfig, Map<EmailParserConfig, EmailParser>> parsers = threadParsers.get();
+        Map<EmailParserConfig, EmailParser> validatorParsers = parsers.get(validator);
+        if (validatorParsers == null) {
+            if (parsers.size() >= MAX_THREAD_PARSERS) parsers.clear();
+            validatorParsers = new HashMap<>();
+            parsers.put(validator, validatorParsers);
+        }
+        EmailParser emailParser = validatorParsers.get(parser);
+        if (emailParser == null) {
+            if (validatorParsers.size() >= MAX_THREAD_PARSERS) validatorParsers.clear();
+            emailParser = new EmailParser(validator, parser);
+            validatorParsers.put(parser, emailParser);
+        }
+        return emailParser;
+    }
+
+    public EmailValidationConfig getValidationConfig() {
+        return validator;
+    }
+
+    public EmailParserConfig getParserConfig() {
+        return parser;
+    }
+
+    /**
+     * Parses the email address into a new result.
+     */
+    public EmailContext parse(String email) {
+        return parse(email, new EmailContext());
+    }
+
+    /**
+     * Parses the email address into the supplied result, replacing anything it held from a previous address. The
+     * result is returned for convenience.
+     */
+    public EmailContext parse(String email, EmailContext result) {
+        if (email == null || !parsePlain(email, email, email.indexOf('@'), result))
+            parseCharacters(email, email, result);
+        result.setInputRange(0, result.atIndex, email == null ? 0 : email.length());
+        return result;
+    }
+
+    /**
+     * Parses the UTF-8 email address in the given range of the byte array into a new result.
+     */
+    public EmailContext parse(byte[] bytes, int offset, int length) {
+        return parse(bytes, offset, length, new EmailContext());
+    }
+
+    /**
+     * Parses the UTF-8 email address in the given range of the byte array into the supplied result, replacing anything
+     * it held from a previous address. The bytes are read in place, so they must not be changed while strings are
+     * still to be requested from the result. The result is returned for convenience.
+     */
+    public EmailContext parse(byte[] bytes, int offset, int length, EmailContext result) {
+        if (bytes == null)
+            return parse((String) null, result);
+        return parseBytes(result.wrap(bytes, offset, length), offset, result);
+    }
+
+    /**
+     * Parses the UTF-8 email address in the given range of the buffer into a new result. The range is given as
+     * absolute positions, and the buffer's position and limit are not changed.
+     */
+    public EmailContext parse(ByteBuffer buffer, int offset, int length) {
+        return parse(buffer, offset, length, new EmailContext());
+    }
+
+    /**
+     * Parses the UTF-8 email address in the given range of the buffer into the supplied result, replacing anything it
+     * held from a previous address. The range is given as absolute positions, and the buffer's position and limit are
+     * not changed. The bytes are read in place, so they must not be changed while strings are still to be requested
+     * from the result. The result is returned for convenience.
+     */
+    public EmailContext parse(ByteBuffer buffer, int offset, int length, EmailContext result) {
+        if (buffer == null)
+            return parse((String) null, result);
+        return parseBytes(result.wrap(buffer, offset, length), offset, result);
+    }
+
+    private EmailContext parseBytes(AsciiBytes bytes, int offset, EmailContext result) {
+        bytes.scan();
+        if (bytes.ascii) {
+            if (bytes.hasQuotesOrComments || bytes.atCount != 1 || !parsePlain(bytes, null, bytes.atIndex, result))
+                parseCharacters(bytes, null, result);
+            result.setInputRange(offset, result.atIndex < 0 ? -1 : offset + result.atIndex, offset + bytes.length());
+        } else {
+            String email = bytes.decode();
+            if (!parsePlain(email, email, email.indexOf('@'), result))
+                parseCharacters(email, email, result);
+            result.setInputRange(offset, result.atIndex < 0 ? -1 : offset + byteIndexOfAt(bytes, email, result.atIndex),
+                    offset + bytes.length());
+        }
+        return result;
+    }
+
+    /**
+     * Finds the byte offset of the '@' at the given index of the decoded string. ASCII characters are never changed by
+     * decoding, so this is the byte of the '@' with the same number of '@' bytes before it.
+     */
+    private static int byteIndexOfAt(AsciiBytes bytes, String email, int atIndex) {
+        int atsBefore = 0;
+        for (int i = 0; i < atIndex; i++) {
+            if (email.charAt(i) == '@') atsBefore++;
+        }
+        for (int i = 0; i < bytes.length(); i++) {
+            if (bytes.byteAt(i) == '@' && atsBefore-- == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses an address made only of allowed local part characters and dots, a single '@', and a domain of letters,
+     * digits, hyphens and dots. These are the only characters which can't start a quote, comment or other special
+     * part, so such an address gives the same result as the full parse without tracking any parts. Returns false,
+     * leaving the result to be replaced, for any other address or any address which would be invalid.
+     */
+    private boolean parsePlain(CharSequence email, String rawEmailAddress, int atIndex, EmailContext result) {
+        int length = email.length();
+        if (atIndex <= 0 || atIndex > MAX_LOCAL_PART_LENGTH || atIndex == length - 1)
+            return false;
+
+        boolean hasDots = false;
+        int subAddressIndex = -1;
+        for (int i = 0; i < atIndex; i++) {
+            char ch = email.charAt(i);
+            if (ch == '.') hasDots = true;
+            else if (!validator.printableCharacterSet.contains(ch)) return false;
+            if (subAddressIndex < 0 && parser.subAddressCharacterSet.contains(ch)) subAddressIndex = i;
+        }
+        if (hasDots && !validator.allowDots || subAddressIndex >= 0 && !validator.allowSubAddresses)
+            return false;
+
+        boolean hasDomainDots = false;
+        boolean labelHasLetter = false;
+        int labelStart = atIndex + 1;
+        for (int i = labelStart; i <= length; i++) {
+            char ch = i < length ? email.charAt(i) : '.';
+            if (ch == '.') {
+                if (i == labelStart || !labelHasLetter || email.charAt(labelStart) == '-' || email.charAt(i - 1) == '-')
+                    return false;
+                hasDomainDots |= i < length;
+                labelHasLetter = false;
+                labelStart = i + 1;
+            } else if (isAsciiLetter(ch)) labelHasLetter = true;
+            else if (!isAsciiDigit(ch) && ch != '-') return false;
+        }
+        if (!hasDomainDots && !validator.allowSingleNameDomains)
+            return false;
+
+        result.reset(email, rawEmailAddress, parser);
+        result.atIndex = atIndex;
+        result.subAddressIndex = subAddressIndex;
+        result.hasDots = hasDots;
+        result.localPartParsed = true;
+        return true;
+    }
+
+    private void parseCharacters(CharSequence email, String rawEmailAddress, EmailContext result) {
+        this.result = result;
+        result.reset(email, rawEmailAddress, parser);
+        localInvalidCharacters = false;
+        domainInvalidReason = null;
+        domainInvalidCharacters = false;
+        domainEmpty = true;
+        try {
+            if (email == null || email.length() == 0)
+                result.setInvalid(InvalidReason.BLANK);
+            else parseBaseEmailParts(email);
+        } finally {
+            this.result = null;
+        }
+    }
+
+    /**
+     * Parse a non-null email address for comments, quotes, dotted parts, and domain. Each part is validated as soon as
+     * its end is found, but any failure is held back until the whole address has been scanned so that the reported
+     * reason follows the same precedence as the address-level checks.
+     */
+    private void parseBaseEmailParts(CharSequence email) {
+        boolean isDomain = false;
+        boolean subAddressFound = false;
+        char closeCharacter = 0;
+        int atCount = 0;
+        int partStart = 0;
+        int length = email.length();
+        for (int i = 0; i < length; i++) {
+            char ch = email.charAt(i);
+            switch (ch) {
+                case '@':
+                    if (closeCharacter == 0) {
+                        endPart(email, partStart, i, isDomain);
+                        partStart = i + 1;
+                        isDomain = true;
+                        if (atCount++ == 0) result.atIndex = i;
+                    }
+                    break;
+                case '.':
+                    if (closeCharacter == 0) {
+                        result.hasDots |= !isDomain;
+                        endPart(email, partStart, i, isDomain);
+                        endPart(email, i, i + 1, isDomain);
+                        partStart = i + 1;
+                    }
+                    break;
+                case ')':
+                    if (closeCharacter == 0) {
+                        result.setInvalid(InvalidReason.UNCLOSED_PARENTHESIS);
+                        return;
+                    }
+                    if (closeCharacter == ch) {
+                        endPart(email, partStart, i + 1, isDomain);
+                        partStart = i + 1;
+                        closeCharacter = 0;
+                    }
+                    break;
+                case '"':
+                    if (closeCharacter == ch) {
+                        if (email.charAt(i - 1) == '\\')
+                            break;
+                        endPart(email, partStart, i + 1, isDomain);
+                        partStart = i + 1;
+                        closeCharacter = 0;
+                    } else {
+                        closeCharacter = ch;
+                        result.hasQuotes = true;
+                    }
+                    break;
+                case '(':
+                    if (closeCharacter == 0) {
+                        endPart(email, partStart, i, isDomain);
+                        partStart = i;
+                        result.hasComments = true;
+                        closeCharacter = ')';
+                    }
+                    break;
+                default:
+                    if (closeCharacter == 0 && !isDomain && !subAddressFound && parser.subAddressCharacterSet.contains(ch)) {
+                        subAddressFound = true;
+                        endPart(email, partStart, i, false);
+                        endPart(email, i, i + 1, false);
+                        partStart = i + 1;
+                    }
+            }
+        }
+        if (closeCharacter != 0) {
+            result.setInvalid(closeCharacter == ')' ? InvalidReason.UNCLOSED_PARENTHESIS : InvalidReason.UNCLOSED_QUOTE);
+            return;
+        }
+        endPart(email, partStart, length, isDomain);
+
+        if (atCount == 0) result.setInvalid(InvalidReason.NO_AT_SYMBOL);
+        else if (atCount > 1) result.setInvalid(InvalidReason.MULTIPLE_AT_SYMBOLS);
+        else if (result.hasQuotes && !validator.allowQuotes)
+            result.setInvalid(InvalidReason.HAS_QUOTES);
+        else if (result.hasComments && !validator.allowComments)
+            result.setInvalid(InvalidReason.HAS_COMMENTS);
+
+        if (result.isValid()) validateLocalPart();
+        if (result.isValid()) validateDomain(email);
+    }
+
+    /**
+     * Handles a part of the email between the two offsets, if it isn't empty.
+     */
+    private void endPart(CharSequence email, int start, int end, boolean domain) {
+        if (end > start) {
+            if (domain) checkDomainPart(email, start, end);
+            else checkLocalPart(email, start, end);
+        }
+    }
+
+    private void checkLocalPart(CharSequence email, int start, int end) {
+        char startChar = email.charAt(start);
+        if (result.subAddressIndex < 0 && parser.subAddressCharacterSet.contains(startChar))
+            result.subAddressIndex = start;
+        if (localInvalidCharacters)
+            return;
+
+        if (startChar == '(' || startChar == '"')
+            localInvalidCharacters = !validator.specialCharacterSet.containsAll(email, start + 1, end - 1);
+        else if (startChar != '.')
+            localInvalidCharacters = !validator.printableCharacterSet.containsAll(email, start, end);
+    }
+
+    private void checkDomainPart(CharSequence email, int start, int end) {
+        if (domainInvalidReason != null)
+            return;
+        char startChar = email.charAt(start);
+        boolean isComment = startChar == '(';
+        boolean isDot = startChar == '.';
+        if (isDot && !domainEmpty && domainLastCharacter == startChar) {
+            domainInvalidReason = InvalidReason.CONSECUTIVE_DOTS;
+            return;
+        }
+        if (!isComment || parser.includeComments) {
+            if (startChar == '"') {
+                domainInvalidReason = InvalidReason.DOMAIN_QUOTES;
+                return;
+            }
+            if (domainEmpty) domainFirstCharacter = startChar;
+            domainLastCharacter = email.charAt(end - 1);
+            domainEmpty = false;
+        }
+        if (!isComment && !isDot) {
+            if (startChar == '-' || email.charAt(end - 1) == '-') {
+                domainInvalidReason = InvalidReason.DOMAIN_EDGE_HYPHEN;
+                return;
+            }
+            domainInvalidCharacters |= !isDomainLabel(email, start, end);
+        }
+    }
+
+    private void validateLocalPart() {
+        if (!validator.allowDots && result.hasDots)
+            result.setInvalid(InvalidReason.HAS_DOTS);
+        else if (localInvalidCharacters)
+            result.setInvalid(InvalidReason.INVALID_CHARACTERS);
+        else result.localPartParsed = true;
+
+        if (!result.isValid())
+            return;
+        if (!validator.allowSubAddresses && result.subAddressIndex >= 0)
+            result.setInvalid(InvalidReason.HAS_SUB_ADDRESS);
+        else if (result.atIndex > MAX_LOCAL_PART_LENGTH)
+            result.setInvalid(InvalidReason.LOCAL_PART_TOO_LONG);
+    }
+
+    private void validateDomain(CharSequence email) {
+        if (domainInvalidReason != null) {
+            result.setInvalid(domainInvalidReason);
+            return;
+        }
+        if (domainEmpty) {
+            result.setInvalid(InvalidReason.NO_DOMAIN);
+            return;
+        }
+        if (domainFirstCharacter == '.' || domainLastCharacter == '.') {
+            result.setInvalid(InvalidReason.EDGE_DOT);
+            return;
+        }
+        if (domainFirstCharacter == '-' || domainLastCharacter == '-') {
+            result.setInvalid(InvalidReason.DOMAIN_EDGE_HYPHEN);
+            return;
+        }
+
+        CharSequence domainCharacters = email;
+        int domainStart = result.atIndex + 1;
+        int domainEnd = email.length();
+        if (result.hasComments && !parser.includeComments) {
+            buffer.setLength(0);
+            domainCharacters = appendWithoutComments(buffer, email, domainStart, domainEnd);
+            domainStart = 0;
+            domainEnd = domainCharacters.length();
+        }
+
+        boolean isIPDomain = false;
+        if (isIPv4Domain(domainCharacters, domainStart, domainEnd)) {
+            isIPDomain = true;
+            if (!validator.allowV4IPDomains) {
+                result.setInvalid(InvalidReason.V4_IP_DOMAIN);
+                return;
+            }
+        } else if (isIPv6Domain(domainCharacters, domainStart, domainEnd)) {
+            isIPDomain = true;
+            if (!validator.allowV6IPDomains) {
+                result.setInvalid(InvalidReason.V6_IP_DOMAIN);
+                return;
+            }
+        }
+        if (!isIPDomain && domainInvalidCharacters) {
+            result.setInvalid(InvalidReason.INVALID_CHARACTERS);
+            return;
+        }
+
+        if (!validator.allowSingleNameDomains && !contains(domainCharacters, domainStart, domainEnd, '.')) {
+            result.setInvalid(InvalidReason.NO_TOP_LEVEL_DOMAIN);
+        }
+    }
+
+    /**
+     * Appends the section of the email between the offsets to the builder with any comments removed. The start offset
+     * must be the start of a part.
+     */
+    static StringBuilder appendWithoutComments(StringBuilder builder, CharSequence email, int start, int end) {
+        char closeCharacter = 0;
+        boolean isComment = false;
+        int copyFrom = start;
+        for (int i = start; i < end; i++) {
+            char ch = email.charAt(i);
+            if (closeCharacter == 0) {
+                if (ch == '(') {
+                    builder.append(email, copyFrom, i);
+                    closeCharacter = ')';
+                    isComment = true;
+                } else if (ch == '"') {
+                    closeCharacter = ch;
+                    isComment = false;
+                }
+            } else if (ch == '"' && (closeCharacter == ')' || email.charAt(i - 1) != '\\')) {
+                if (closeCharacter == ')') {
+                    closeCharacter = ch;
+                } else {
+                    closeCharacter = 0;
+                    if (isComment) copyFrom = i + 1;
+                }
+            } else if (ch == ')' && closeCharacter == ch) {
+                closeCharacter = 0;
+                copyFrom = i + 1;
+            }
+        }
+        return builder.append(email, copyFrom, end);
+    }
+
+    private static boolean contains(CharSequence characters, int start, int end, char ch) {
+        for (int i = start; i < end; i++) {
+            if (characters.charAt(i) == ch)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the characters between the offsets make a valid domain label. A label must contain at least one
+     * letter, and may only contain letters, digits, and hyphens which aren't at either end.
+     */
+    private static boolean isDomainLabel(CharSequence characters, int start, int end) {
+        boolean hasLetter = false;
+        for (int i = start; i < end; i++) {
+            char ch = characters.charAt(i);
+            if (isAsciiLetter(ch))
+                hasLetter = true;
+            else if (!isAsciiDigit(ch) && !(ch == '-' && i > start && i < end - 1) && end - start > 1)
+                return false;
+        }
+        return hasLetter;
+    }
+
+    /**
+     * Returns true if the characters between the offsets are a V4 IP address in square brackets, such as
+     * "[123.123.123.123]".
+     */
+    private static boolean isIPv4Domain(CharSequence characters, int start, int end) {
+        if (end - start < 9 || characters.charAt(start) != '[' || characters.charAt(end - 1) != ']')
+            return false;
+        int dots = 0;
+        int digits = 0;
+        int octet = 0;
+        for (int i = start + 1; i < end - 1; i++) {
+            char ch = characters.charAt(i);
+            if (isAsciiDigit(ch) && digits < 3) {
+                digits++;
+                octet = octet * 10 + ch - '0';
+            } else if (ch == '.' && digits > 0 && octet <= 255 && dots < 3) {
+                dots++;
+                digits = 0;
+                octet = 0;
+            } else return false;
+        }
+        return dots == 3 && digits > 0 && octet <= 255;
+    }
+
+    /**
+     * Returns true if the characters between the offsets contain a V6 IP address in square brackets, such as
+     * "[IPv6:2001:db8::1]". The "IPv6" tag and the address are case-insensitive.
+     */
+    private static boolean isIPv6Domain(CharSequence characters, int start, int end) {
+        for (int i = start; i < end - 6; i++) {
+            if (characters.charAt(i) != '[' || !startsWithIgnoreCase(characters, i + 1, "ipv6:"))
+                continue;
+            int addressStart = i + 6;
+            int lastColon = -1;
+            int j = addressStart;
+            for (char ch; j < end && (isHexDigit(ch = characters.charAt(j)) || ch == ':'); j++) {
+                if (ch == ':') lastColon = j;
+            }
+            if (j < end && characters.charAt(j) == ']' && lastColon > addressStart && lastColon < j - 1)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence characters, int start, String prefix) {
+        if (characters.length() - start < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (toLowerCase(characters.charAt(start + i)) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z';
+    }
+
+    private static boolean isAsciiDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isHexDigit(char ch) {
+        ch = toLowerCase(ch);
+        return isAsciiDigit(ch) || ch >= 'a' && ch <= 'f';
+    }
+
+    private static char toLowerCase(char ch) {
+        return ch >= 'A' && ch <= 'Z' ? (char) (ch + 'a' - 'A') : ch;
+    }
+}
@@ -3,23 +3,65 @@ package emails.processors;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
+import emails.analysis.HyperLogLog;
+import emails.constants.DomainRetention;
 import emails.constants.EmailListOrder;
 
 /**
  * Holds rules for parsing emails, such as handling sub-addresses, stripping comments
+ *
+ * Configurations are immutable once built, so a single configuration can be shared between threads and reused for any
+ * number of email addresses. The standard configuration is only created once.
  */
 public class EmailParserConfig {
 
-    boolean includeSubAddresses = true;
-    boolean includeComments = false;
-    boolean lowerCase = false;
-
-    EmailListOrder order = EmailListOrder.ALPHABETICAL;
-    Integer maxResults = null;
-    Set<Character> subAddressCharacters = Collections.singleton('+');
+    final boolean includeSubAddresses;
+    final boolean includeComments;
+    final boolean lowerCase;
+
+    final EmailListOrder order;
+    final Integer maxResults;
+    final DomainRetention domainRetention;
+    final int approximatePrecision;
+    final long duplicateFilterSize;
+    final double duplicateFilterRate;
+    final Set<Character> subAddressCharacters;
+    final CharacterSet subAddressCharacterSet;
+
+    private final String fingerprint;
+
+    private static final EmailParserConfig STANDARD = custom().build();
+
+    private EmailParserConfig(EmailParserConfigBuilder builder) {
+        includeSubAddresses = builder.includeSubAddresses;
+        includeComments = builder.includeComments;
+        lowerCase = builder.lowerCase;
+        order = builder.order;
+        maxResults = builder.maxResults;
+        domainRetention = builder.domainRetention;
+        approximatePrecision = builder.approximatePrecision;
+        duplicateFilterSize = builder.duplicateFilterSize;
+        duplicateFilterRate = builder.duplicateFilterRate;
+        subAddressCharacters = Collections.unmodifiableSet(new HashSet<>(builder.subAddressCharacters));
+        subAddressCharacterSet = CharacterSet.builder().addAll(subAddressCharacters).build();
+        fingerprint = createFingerprint();
+    }
 
-    private EmailParserConfig() {
+    private String createFingerprint() {
+        StringBuilder builder = new StringBuilder()
+                .append(includeSubAddresses ? 's' : '-')
+                .append(includeComments ? 'c' : '-')
+                .append(lowerCase ? 'l' : '-')
+                .append(':').append(order)
+                .append(':').append(maxResults == null ? "" : maxResults)
+                .append(':').append(domainRetention)
+                .append(domainRetention == DomainRetention.APPROXIMATE ? approximatePrecision : "")
+                .append(':').append(duplicateFilterSize > 0 ? duplicateFilterSize + "/" + duplicateFilterRate : "")
+                .append(':');
+        new TreeSet<>(subAddressCharacters).forEach(builder::append);
+        return builder.toString();
     }
 
     /**
@@ -27,7 +69,25 @@ public class EmailParserConfig {
      * case.
      */
     public static EmailParserConfig standard() {
-        return new EmailParserConfig();
+        return STANDARD;
+    }
+
+    /**
+     * Returns a short string identifying the rules of this configuration. Configurations with the same rules always
+     * have the same fingerprint, including across separate runs, so this can be used as a key for cached results.
+     */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof EmailParserConfig && fingerprint.equals(((EmailParserConfig) o).fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
     }
 
     /**
@@ -39,14 +99,24 @@ public class EmailParserConfig {
 
     public static class EmailParserConfigBuilder {
 
-        private final EmailParserConfig config = new EmailParserConfig();
+        private boolean includeSubAddresses = true;
+        private boolean includeComments = false;
+        private boolean lowerCase = false;
+
+        private EmailListOrder order = EmailListOrder.ALPHABETICAL;
+        private Integer maxResults = null;
+        private DomainRetention domainRetention = DomainRetention.UNIQUE;
+        private int approximatePrecision = HyperLogLog.DEFAULT_PRECISION;
+        private long duplicateFilterSize = 0;
+        private double duplicateFilterRate = 0;
+        private Set<Character> subAddressCharacters = Collections.singleton('+');
 
         /**
          * If enabled the case of the local parts of emails will be preserved, if disabled it will be set to lower case.
          * By default, this is enabled. All domains are considered case-insensitive and are not affected by this.
          */
         public EmailParserConfigBuilder setCaseSensitive(boolean caseSensitive) {
-            config.lowerCase = !caseSensitive;
+            lowerCase = !caseSensitive;
             return this;
         }
 
@@ -55,7 +125,7 @@ public class EmailParserConfig {
          * is disabled.
          */
         public EmailParserConfigBuilder includeComments(boolean includeComments) {
-            config.includeComments = includeComments;
+            this.includeComments = includeComments;
             return this;
         }
 
@@ -64,7 +134,7 @@ public class EmailParserConfig {
          * removed. By default, this is enabled.
          */
         public EmailParserConfigBuilder includeSubAddresses(boolean includeSubAddresses) {
-            config.includeSubAddresses = includeSubAddresses;
+            this.includeSubAddresses = includeSubAddresses;
             return this;
         }
 
@@ -76,9 +146,9 @@ public class EmailParserConfig {
          * can override the default "+".
          */
         public EmailParserConfigBuilder setSubAddressCharacters(char... characters) {
-            config.subAddressCharacters = new HashSet<>();
+            subAddressCharacters = new HashSet<>();
             for (char character : characters) {
-                config.subAddressCharacters.add(character);
+                subAddressCharacters.add(character);
             }
             return this;
         }
@@ -88,21 +158,63 @@ public class EmailParserConfig {
          * the parsed email address.
          */
         public EmailParserConfigBuilder setListOrder(EmailListOrder order) {
-            config.order = order;
+            this.order = order;
             return this;
         }
 
         /**
          * Limit the maximum number of results to be returned. Only applies when returning a list of counts of the
-         * occurrences of email addresses or domains. By default all results are returned.
+         * occurrences of email addresses or domains. By default, or if this is set to null, all results are returned.
+         */
+        public EmailParserConfigBuilder setMaxResults(Integer maxResults) {
+            this.maxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * Set how much of each email address is kept when analysing domains. By default, only counts and the unique
+         * local parts and sub-addresses of each domain are kept. {@link DomainRetention#FULL} keeps every local part
+         * and sub-address, while {@link DomainRetention#COUNTS} keeps only counts, so unique counts are unavailable.
+         * {@link DomainRetention#APPROXIMATE} estimates unique counts using a fixed amount of memory for each domain.
+         */
+        public EmailParserConfigBuilder setDomainRetention(DomainRetention domainRetention) {
+            this.domainRetention = domainRetention == null ? DomainRetention.UNIQUE : domainRetention;
+            return this;
+        }
+
+        /**
+         * Set the precision of the sketches used to estimate unique counts when domain retention is approximate, from
+         * 4 to 18. Each extra bit of precision doubles the memory used for each domain and reduces the error by a
+         * factor of root two. By default, this is 12, using 4KB for each large domain with a standard error of 1.6%.
          */
-        public EmailParserConfigBuilder setMaxResults(int maxResults) {
-            config.maxResults = maxResults;
+        public EmailParserConfigBuilder setApproximatePrecision(int approximatePrecision) {
+            if (approximatePrecision < HyperLogLog.MIN_PRECISION || approximatePrecision > HyperLogLog.MAX_PRECISION)
+                throw new IllegalArgumentException("Precision must be between " + HyperLogLog.MIN_PRECISION
+                        + " and " + HyperLogLog.MAX_PRECISION);
+            this.approximatePrecision = approximatePrecision;
             return this;
         }
 
+        /**
+         * Set a Bloom filter to be checked before the exact results when deduplicating lists, sized for the expected
+         * number of unique email addresses with the given false positive rate. Addresses the filter reports as new
+         * skip the lookup in the exact results, which helps most when the majority of addresses are unique. Results
+         * are unchanged. Setting the expected number of addresses to 0 disables the filter, which is the default.
+         */
+        public EmailParserConfigBuilder setDuplicateFilter(long expectedAddresses, double falsePositiveRate) {
+            if (expectedAddresses > 0 && (falsePositiveRate <= 0 || falsePositiveRate >= 1))
+                throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+            this.duplicateFilterSize = Math.max(expectedAddresses, 0);
+            this.duplicateFilterRate = duplicateFilterSize > 0 ? falsePositiveRate : 0;
+            return this;
+        }
+
+        /**
+         * Returns a new immutable configuration with the rules currently set. The builder can continue to be used
+         * afterwards without affecting configurations it has already built.
+         */
         public EmailParserConfig build() {
-            return config;
+            return new EmailParserConfig(this);
         }
 
     }
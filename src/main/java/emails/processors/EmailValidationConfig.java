@@ -1,30 +1,37 @@
 package emails.processors;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
 
 /**
  * Holds validation rules for email addresses.
+ *
+ * Configurations are immutable once built, so a single configuration can be shared between threads and reused for any
+ * number of email addresses. The strict and generic configurations are only created once.
  */
 public class EmailValidationConfig {
 
     // Domain configuration
-    boolean allowSingleNameDomains;
-    boolean allowV4IPDomains;
-    boolean allowV6IPDomains;
+    final boolean allowSingleNameDomains;
+    final boolean allowV4IPDomains;
+    final boolean allowV6IPDomains;
 
     // Local part configuration
-    boolean allowQuotes;
-    boolean allowComments;
-    boolean allowDots;
-    boolean allowSubAddresses;
-    Set<Character> allowedPrintableCharacters = new HashSet<>();
-    Set<Character> allowedSpecialCharacters = new HashSet<>();
+    final boolean allowQuotes;
+    final boolean allowComments;
+    final boolean allowDots;
+    final boolean allowSubAddresses;
+    final boolean allowNonAsciiCharacters;
+    final Set<Character> allowedPrintableCharacters;
+    final Set<Character> allowedSpecialCharacters;
 
-    Pattern allowedPrintablePattern;
-    Pattern allowedSpecialPattern;
+    final CharacterSet printableCharacterSet;
+    final CharacterSet specialCharacterSet;
+
+    private final String fingerprint;
 
     private static final Set<Character> allPrintableCharacters = new HashSet<>(Arrays.asList(
             '!', '#', '$', '%', '&', '\'', '*', '+', '-', '/', '=', '?', '^', '_', '`', '{', '}', '|', '~'));
@@ -32,31 +39,81 @@ public class EmailValidationConfig {
     private static final Set<Character> allSpecialCharacters = new HashSet<>(Arrays.asList(
             ' ', '"',  '(', ')', ',', ':', ';', '<', '>', '@', '[', '\\', ']'));
 
-
-    private void setPrintableRegex() {
-        StringBuilder allowed = new StringBuilder();
-        allowedPrintableCharacters.forEach(allowed::append);
-        allowedPrintablePattern = Pattern.compile(
-                "^[a-zA-Z\\d" + escapeCharactersForRegex(allowed.toString()) + "]+$");
+    private static final Set<Character> whitespaceCharacters = new HashSet<>(Arrays.asList(
+            ' ', '\t', '\n', '\u000B', '\f', '\r'));
+
+    private static final EmailValidationConfig STRICT = custom().strict().build();
+    private static final EmailValidationConfig GENERIC = custom().generic().build();
+
+
+    private EmailValidationConfig(EmailValidationConfigBuilder builder) {
+        allowSingleNameDomains = builder.allowSingleNameDomains;
+        allowV4IPDomains = builder.allowV4IPDomains;
+        allowV6IPDomains = builder.allowV6IPDomains;
+        allowQuotes = builder.allowQuotes;
+        allowComments = builder.allowComments;
+        allowDots = builder.allowDots;
+        allowSubAddresses = builder.allowSubAddresses;
+        allowNonAsciiCharacters = builder.allowNonAsciiCharacters;
+        allowedPrintableCharacters = Collections.unmodifiableSet(new HashSet<>(builder.allowedPrintableCharacters));
+        allowedSpecialCharacters = Collections.unmodifiableSet(new HashSet<>(builder.allowedSpecialCharacters));
+
+        printableCharacterSet = CharacterSet.builder()
+                .addAlphanumeric()
+                .addAll(allowedPrintableCharacters)
+                .allowNonAscii(allowNonAsciiCharacters)
+                .build();
+        specialCharacterSet = CharacterSet.builder()
+                .addAlphanumeric()
+                .addAll(allPrintableCharacters)
+                .addAll(allowedSpecialCharacters)
+                .addAll(allowedSpecialCharacters.contains(' ') ? whitespaceCharacters : Collections.emptySet())
+                .add('.')
+                .allowNonAscii(allowNonAsciiCharacters)
+                .build();
+        fingerprint = createFingerprint();
     }
 
-    private void setSpecialRegex() {
-        StringBuilder allowed = new StringBuilder();
-        boolean includeWhitespace = allowedSpecialCharacters.contains(' ');
-        allPrintableCharacters.forEach(allowed::append);
-        allowedSpecialCharacters.forEach(allowed::append);
-        allowedSpecialPattern = Pattern.compile(
-                "^[a-zA-Z\\d" + escapeCharactersForRegex(allowed.toString()) + (includeWhitespace ? "\\s" : "") + "]*$");
+    /**
+     * Packs every rule into the bits of a single number. Each printable and special character has a fixed bit, so the
+     * result only depends on the rules and not on the order they were set in.
+     */
+    private String createFingerprint() {
+        boolean[] flags = {allowSingleNameDomains, allowV4IPDomains, allowV6IPDomains, allowQuotes, allowComments,
+                allowDots, allowSubAddresses, allowNonAsciiCharacters};
+        long bits = 0;
+        int bit = 0;
+        for (boolean flag : flags) {
+            if (flag) bits |= 1L << bit;
+            bit++;
+        }
+        for (char character : new TreeSet<>(allPrintableCharacters)) {
+            if (allowedPrintableCharacters.contains(character)) bits |= 1L << bit;
+            bit++;
+        }
+        for (char character : new TreeSet<>(allSpecialCharacters)) {
+            if (allowedSpecialCharacters.contains(character)) bits |= 1L << bit;
+            bit++;
+        }
+        return Long.toHexString(bits);
     }
 
-    private String escapeCharactersForRegex(String unescaped) {
-        unescaped = unescaped.replaceAll("([\\\\+*?\\[\\](){}|.^$])", "\\\\$1");
-        return unescaped;
+    /**
+     * Returns a short string identifying the rules of this configuration. Configurations with the same rules always
+     * have the same fingerprint, including across separate runs, so this can be used as a key for cached results.
+     */
+    public String fingerprint() {
+        return fingerprint;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof EmailValidationConfig && fingerprint.equals(((EmailValidationConfig) o).fingerprint);
+    }
 
-    private EmailValidationConfig() {
-
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
     }
 
     /**
@@ -64,7 +121,7 @@ public class EmailValidationConfig {
      * including IP addresses as domains and special characters in quotes.
      */
     public static EmailValidationConfig strict() {
-        return custom().strict().build();
+        return STRICT;
     }
 
     /**
@@ -73,7 +130,7 @@ public class EmailValidationConfig {
      * and hyphens are allowed.
      */
     public static EmailValidationConfig generic() {
-        return custom().generic().build();
+        return GENERIC;
     }
 
     public static EmailValidationConfigBuilder custom() {
@@ -82,77 +139,82 @@ public class EmailValidationConfig {
 
     public static class EmailValidationConfigBuilder {
 
-        private final EmailValidationConfig config = new EmailValidationConfig();
+        private boolean allowSingleNameDomains;
+        private boolean allowV4IPDomains;
+        private boolean allowV6IPDomains;
+        private boolean allowQuotes;
+        private boolean allowComments;
+        private boolean allowDots;
+        private boolean allowSubAddresses;
+        private boolean allowNonAsciiCharacters;
+        private final Set<Character> allowedPrintableCharacters = new HashSet<>();
+        private final Set<Character> allowedSpecialCharacters = new HashSet<>();
 
         public EmailValidationConfigBuilder generic() {
-            config.allowSingleNameDomains = false;
-            config.allowV4IPDomains = false;
-            config.allowV6IPDomains = false;
-            config.allowQuotes = false;
-            config.allowDots = true;
-            config.allowComments = false;
-            config.allowSubAddresses = true;
-            config.allowedPrintableCharacters.addAll(Arrays.asList('+', '-'));
-            config.allowedSpecialCharacters.addAll(allSpecialCharacters);
-            config.setPrintableRegex();
-            config.setSpecialRegex();
+            allowSingleNameDomains = false;
+            allowV4IPDomains = false;
+            allowV6IPDomains = false;
+            allowQuotes = false;
+            allowDots = true;
+            allowComments = false;
+            allowSubAddresses = true;
+            allowedPrintableCharacters.addAll(Arrays.asList('+', '-'));
+            allowedSpecialCharacters.addAll(allSpecialCharacters);
             return this;
         }
 
         public EmailValidationConfigBuilder strict() {
-            config.allowSingleNameDomains = true;
-            config.allowV4IPDomains = true;
-            config.allowV6IPDomains = true;
-            config.allowQuotes = true;
-            config.allowDots = true;
-            config.allowComments = true;
-            config.allowSubAddresses = true;
-            config.allowedPrintableCharacters.addAll(allPrintableCharacters);
-            config.allowedSpecialCharacters.addAll(allSpecialCharacters);
-            config.setPrintableRegex();
-            config.setSpecialRegex();
+            allowSingleNameDomains = true;
+            allowV4IPDomains = true;
+            allowV6IPDomains = true;
+            allowQuotes = true;
+            allowDots = true;
+            allowComments = true;
+            allowSubAddresses = true;
+            allowedPrintableCharacters.addAll(allPrintableCharacters);
+            allowedSpecialCharacters.addAll(allSpecialCharacters);
             return this;
         }
 
         public EmailValidationConfigBuilder allowSingleNameDomains(boolean allowSingleNameDomains) {
-            config.allowSingleNameDomains = allowSingleNameDomains;
+            this.allowSingleNameDomains = allowSingleNameDomains;
             return this;
         }
 
         public EmailValidationConfigBuilder allowV4IPDomains(boolean allowV4IPDomains) {
-            config.allowV4IPDomains = allowV4IPDomains;
+            this.allowV4IPDomains = allowV4IPDomains;
             return this;
         }
 
         public EmailValidationConfigBuilder allowV6IPDomains(boolean allowV6IPDomains) {
-            config.allowV6IPDomains = allowV6IPDomains;
+            this.allowV6IPDomains = allowV6IPDomains;
             return this;
         }
 
         public EmailValidationConfigBuilder allowQuotes(boolean allowQuotes) {
-            config.allowQuotes = allowQuotes;
+            this.allowQuotes = allowQuotes;
             return this;
         }
 
         public EmailValidationConfigBuilder allowDots(boolean allowDots) {
-            config.allowDots = allowDots;
+            this.allowDots = allowDots;
             return this;
         }
 
         public EmailValidationConfigBuilder allowComments(boolean allowComments) {
-            config.allowComments = allowComments;
+            this.allowComments = allowComments;
             return this;
         }
 
         public EmailValidationConfigBuilder allowHyphens(boolean allowHyphens) {
-            if (allowHyphens) config.allowedPrintableCharacters.add('-');
-            else config.allowedPrintableCharacters.remove('-');
+            if (allowHyphens) allowedPrintableCharacters.add('-');
+            else allowedPrintableCharacters.remove('-');
             return this;
         }
 
         public EmailValidationConfigBuilder allowPluses(boolean allowPluses) {
-            if (allowPluses) config.allowedPrintableCharacters.add('+');
-            else config.allowedPrintableCharacters.remove('+');
+            if (allowPluses) allowedPrintableCharacters.add('+');
+            else allowedPrintableCharacters.remove('+');
             return this;
         }
 
@@ -168,9 +230,8 @@ public class EmailValidationConfig {
         public EmailValidationConfigBuilder allowPrintableCharacters(char... characters) {
             for (char character : characters) {
                 if (allPrintableCharacters.contains(character))
-                    config.allowedPrintableCharacters.add(character);
+                    allowedPrintableCharacters.add(character);
             }
-            config.setPrintableRegex();
             return this;
         }
 
@@ -185,9 +246,8 @@ public class EmailValidationConfig {
          */
         public EmailValidationConfigBuilder disallowPrintableCharacters(char... characters) {
             for (char character : characters) {
-                config.allowedPrintableCharacters.remove(character);
+                allowedPrintableCharacters.remove(character);
             }
-            config.setPrintableRegex();
             return this;
         }
 
@@ -203,10 +263,8 @@ public class EmailValidationConfig {
         public EmailValidationConfigBuilder allowSpecialCharacters(char... characters) {
             for (char character : characters) {
                 if (allSpecialCharacters.contains(character))
-                    config.allowedSpecialCharacters.add(character);
+                    allowedSpecialCharacters.add(character);
             }
-            config.setPrintableRegex();
-            config.setSpecialRegex();
             return this;
         }
 
@@ -221,15 +279,27 @@ public class EmailValidationConfig {
          */
         public EmailValidationConfigBuilder disallowSpecialCharacters(char... characters) {
             for (char character : characters) {
-                config.allowedSpecialCharacters.remove(character);
+                allowedSpecialCharacters.remove(character);
             }
-            config.setPrintableRegex();
-            config.setSpecialRegex();
             return this;
         }
 
+        /**
+         * Setting this will allow non-ASCII characters, such as accented letters, in the local part of an email
+         * address, as permitted for internationalised addresses by RFC6531. By default, this is disabled in both the
+         * "strict" and "generic" configurations.
+         */
+        public EmailValidationConfigBuilder allowNonAsciiCharacters(boolean allowNonAsciiCharacters) {
+            this.allowNonAsciiCharacters = allowNonAsciiCharacters;
+            return this;
+        }
+
+        /**
+         * Returns a new immutable configuration with the rules currently set. The builder can continue to be used
+         * afterwards without affecting configurations it has already built.
+         */
         public EmailValidationConfig build() {
-            return config;
+            return new EmailValidationConfig(this);
         }
 
     }
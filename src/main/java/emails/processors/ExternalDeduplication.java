@@ -0,0 +1,347 @@
+package emails.processors;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import emails.constants.EmailListOrder;
+
+/**
+ * Deduplicates parsed email addresses which may not fit in memory. Addresses are counted in memory until their
+ * estimated size passes the memory budget, then written to a temporary file as a sorted run. The runs are merged when
+ * the results are read, combining the counts of any address found in several runs.
+ *
+ * Results are in the same order as the deduplicated list results of {@link EmailListContext}. For occurrence ordering
+ * the merged counts are sorted again, which spills further runs in the same way, once the first runs are deleted.
+ * At most {@link #MAX_MERGE_RUNS} runs are open at once, so more runs than that are first merged in groups into
+ * longer runs.
+ */
+final class ExternalDeduplication implements Closeable {
+
+    // Rough memory used by each address held in memory, besides its characters
+    private static final int ENTRY_OVERHEAD = 112;
+
+    // Runs read at once by a merge, well below the usual limit of open files
+    static final int MAX_MERGE_RUNS = 64;
+
+    private static final Comparator<Entry> ADDRESS_ORDER = Comparator.comparing(e -> e.address);
+    private static final Comparator<Entry> DOMAIN_ORDER = Comparator.<Entry, String>comparing(e -> e.domain)
+            .thenComparing(ADDRESS_ORDER);
+    private static final Comparator<Entry> OCCURRENCE_ORDER = Comparator.<Entry>comparingLong(e -> e.count)
+            .thenComparing(ADDRESS_ORDER);
+
+    private final EmailListOrder order;
+    private final long memoryBudget;
+    private final Runs addresses;
+    private Runs occurrences;
+
+    ExternalDeduplication(EmailListOrder order, long memoryBudget) {
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive");
+        this.order = order;
+        this.memoryBudget = memoryBudget;
+        this.addresses = new Runs(order == EmailListOrder.DOMAIN_ALPHABETICAL ? DOMAIN_ORDER : ADDRESS_ORDER, true);
+    }
+
+    void add(String parsedEmailAddress, String domain) {
+        addresses.add(new Entry(parsedEmailAddress, domain, 1));
+    }
+
+    /**
+     * Returns the deduplicated addresses in order. The stream must be closed to delete the temporary files.
+     */
+    Stream<String> stream() {
+        Iterator<Entry> entries = addresses.merge();
+        if (order == EmailListOrder.OCCURRENCES) {
+            occurrences = new Runs(OCCURRENCE_ORDER, false);
+            entries.forEachRemaining(occurrences::add);
+            // Every address run has been read, so its files are closed and deleted before the counts are merged
+            addresses.close();
+            entries = occurrences.merge();
+        }
+        Iterator<Entry> results = entries;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return results.next().address;
+            }
+        }, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        try {
+            addresses.close();
+        } finally {
+            if (occurrences != null) occurrences.close();
+        }
+    }
+
+    private static class Entry {
+
+        private final String address;
+        private final String domain;
+        private long count;
+
+        Entry(String address, String domain, long count) {
+            this.address = address;
+            this.domain = domain;
+            this.count = count;
+        }
+
+        long size() {
+            return ENTRY_OVERHEAD + 2L * (address.length() + domain.length());
+        }
+    }
+
+    /**
+     * Entries held in memory up to the budget and spilled to sorted files beyond it. Combined runs count equal
+     * addresses together, both in memory and when merging the runs.
+     */
+    private class Runs implements Closeable {
+
+        private final Comparator<Entry> runOrder;
+        private final boolean combine;
+        private final Map<String, Entry> combined = new HashMap<>();
+        private final List<Entry> entries = new ArrayList<>();
+        private final List<Path> runFiles = new ArrayList<>();
+        private final List<RunReader> readers = new ArrayList<>();
+        private long size;
+
+        Runs(Comparator<Entry> runOrder, boolean combine) {
+            this.runOrder = runOrder;
+            this.combine = combine;
+        }
+
+        void add(Entry entry) {
+            if (combine) {
+                Entry existing = combined.putIfAbsent(entry.address, entry);
+                if (existing != null) {
+                    existing.count += entry.count;
+                    return;
+                }
+            } else entries.add(entry);
+            size += entry.size();
+            if (size > memoryBudget)
+                spill();
+        }
+
+        private List<Entry> sortedEntries() {
+            List<Entry> sorted = combine ? new ArrayList<>(combined.values()) : new ArrayList<>(entries);
+            combined.clear();
+            entries.clear();
+            size = 0;
+            sorted.sort(runOrder);
+            return sorted;
+        }
+
+        private void spill() {
+            try {
+                writeRun(sortedEntries().iterator());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Writes the entries, which are already in order, to a new run file.
+         */
+        private void writeRun(Iterator<Entry> sorted) throws IOException {
+            Path file = Files.createTempFile("emails", ".run");
+            runFiles.add(file);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                while (sorted.hasNext()) {
+                    Entry entry = sorted.next();
+                    writeString(out, entry.address);
+                    writeString(out, entry.domain);
+                    out.writeLong(entry.count);
+                }
+            }
+        }
+
+        /**
+         * Returns every entry in order, merging the spilled runs with the entries still in memory. While there are
+         * more runs than can be read at once, the oldest are merged into a new run and deleted.
+         */
+        Iterator<Entry> merge() {
+            List<Entry> remaining = sortedEntries();
+            if (runFiles.isEmpty())
+                return remaining.iterator();
+            try {
+                while (runFiles.size() > MAX_MERGE_RUNS) {
+                    List<Path> group = new ArrayList<>(runFiles.subList(0, MAX_MERGE_RUNS));
+                    List<RunReader> groupReaders = open(group);
+                    writeRun(new MergeIterator(queue(groupReaders), combine));
+                    for (RunReader reader : groupReaders) reader.close();
+                    readers.removeAll(groupReaders);
+                    for (Path file : group) Files.deleteIfExists(file);
+                    runFiles.removeAll(group);
+                }
+                List<RunReader> runReaders = open(runFiles);
+                runReaders.add(new RunReader(remaining));
+                return new MergeIterator(queue(runReaders), combine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<RunReader> open(List<Path> files) throws IOException {
+            List<RunReader> opened = new ArrayList<>();
+            for (Path file : files) {
+                RunReader reader = new RunReader(file);
+                readers.add(reader);
+                opened.add(reader);
+            }
+            return opened;
+        }
+
+        private PriorityQueue<RunReader> queue(List<RunReader> runReaders) {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>((o1, o2) -> runOrder.compare(o1.current, o2.current));
+            for (RunReader reader : runReaders) {
+                if (reader.advance()) queue.add(reader);
+            }
+            return queue;
+        }
+
+        /**
+         * Closes every reader and deletes every run file, even if some of them fail, throwing the first failure.
+         */
+        @Override
+        public void close() {
+            IOException failure = null;
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+            for (Path file : runFiles) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+            readers.clear();
+            runFiles.clear();
+            if (failure != null)
+                throw new UncheckedIOException(failure);
+        }
+    }
+
+    /**
+     * Reads the entries of a run in order, from a file or from a sorted list.
+     */
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream in;
+        private final Iterator<Entry> entries;
+        private Entry current;
+
+        RunReader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            this.entries = null;
+        }
+
+        RunReader(Collection<Entry> entries) {
+            this.in = null;
+            this.entries = entries.iterator();
+        }
+
+        boolean advance() {
+            if (entries != null) {
+                current = entries.hasNext() ? entries.next() : null;
+                return current != null;
+            }
+            try {
+                String address = readString(in);
+                current = new Entry(address, readString(in), in.readLong());
+                return true;
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    private static class MergeIterator implements Iterator<Entry> {
+
+        private final PriorityQueue<RunReader> queue;
+        private final boolean combine;
+
+        MergeIterator(PriorityQueue<RunReader> queue, boolean combine) {
+            this.queue = queue;
+            this.combine = combine;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+            if (queue.isEmpty())
+                throw new NoSuchElementException();
+            Entry entry = poll();
+            while (combine && !queue.isEmpty() && queue.peek().current.address.equals(entry.address)) {
+                entry.count += poll().count;
+            }
+            return entry;
+        }
+
+        private Entry poll() {
+            RunReader reader = queue.poll();
+            Entry entry = reader.current;
+            if (reader.advance()) queue.add(reader);
+            return entry;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        char[] characters = new char[length];
+        for (int i = 0; i < length; i++) characters[i] = in.readChar();
+        return new String(characters);
+    }
+}
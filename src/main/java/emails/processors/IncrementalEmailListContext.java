@@ -0,0 +1,182 @@
+package emails.processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import emails.analysis.DomainAnalysis;
+import emails.analysis.EmailAddressAnalysis;
+import emails.constants.DomainRetention;
+import emails.constants.EmailListOrder;
+
+/**
+ * Holds the analysis of a list of emails which changes over time, based on configuration settings. Unlike
+ * {@link EmailListContext}, which parses the whole list for each result, email addresses are added to and removed from
+ * the results as the list changes. Each change only parses the addresses involved, and the results are kept in order,
+ * so reading the first results after a small change doesn't depend on the size of the list.
+ *
+ * Results are the analyses held by the context, which change as further addresses are added or removed. Addresses
+ * can't be removed when domain unique counts are approximate. A context shouldn't be shared between threads.
+ */
+public class IncrementalEmailListContext {
+
+    private final EmailParserConfig parserConfig;
+    private final EmailParser parser;
+    private final EmailContext email = new EmailContext();
+
+    private final Map<String, EmailAddressAnalysis> emailAddresses = new HashMap<>();
+    private final Map<String, DomainAnalysis> domains = new HashMap<>();
+    private final TreeSet<EmailAddressAnalysis> sortedEmailAddresses;
+    private final TreeSet<DomainAnalysis> sortedDomains;
+    private int size;
+
+    public IncrementalEmailListContext() {
+        this(null, null);
+    }
+
+    public IncrementalEmailListContext(EmailValidationConfig validator, EmailParserConfig parser) {
+        this.parserConfig = parser == null ? EmailParserConfig.standard() : parser;
+        this.parser = new EmailParser(validator == null ? EmailValidationConfig.generic() : validator, parserConfig);
+        EmailListOrder order = parserConfig.order;
+        sortedEmailAddresses = new TreeSet<>((o1, o2) -> o1.compareTo(o2, order));
+        sortedDomains = new TreeSet<>((o1, o2) -> o1.compareTo(o2, order));
+    }
+
+    /**
+     * Adds the email address to the results, returning false if it isn't valid.
+     */
+    public boolean add(String emailAddress) {
+        if (!parser.parse(emailAddress, email).isValid())
+            return false;
+        EmailAddressAnalysis address = emailAddresses.get(email.getParsedEmailAddress());
+        if (address == null) {
+            address = new EmailAddressAnalysis(email, true);
+            emailAddresses.put(email.getParsedEmailAddress(), address);
+            sortedEmailAddresses.add(address);
+        } else {
+            resort(sortedEmailAddresses, address, true);
+            address.addParsedEmail(email);
+            resort(sortedEmailAddresses, address, false);
+        }
+        DomainAnalysis domain = domains.get(email.getDomain());
+        if (domain == null) {
+            domain = new DomainAnalysis(email, parserConfig.domainRetention, parserConfig.approximatePrecision, true);
+            domains.put(email.getDomain(), domain);
+            sortedDomains.add(domain);
+        } else {
+            resort(sortedDomains, domain, true);
+            domain.addParsedEmail(email);
+            resort(sortedDomains, domain, false);
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds each email address to the results, returning the number which were valid.
+     */
+    public int addAll(Collection<String> emailAddresses) {
+        int added = 0;
+        for (String emailAddress : emailAddresses) {
+            if (add(emailAddress)) added++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes one occurrence of the email address from the results, returning false if it isn't valid or wasn't
+     * added. The address must match one that was added exactly, not only once parsed.
+     *
+     * @throws UnsupportedOperationException if domain unique counts are approximate
+     */
+    public boolean remove(String emailAddress) {
+        if (parserConfig.domainRetention == DomainRetention.APPROXIMATE)
+            throw new UnsupportedOperationException("Email addresses can't be removed from approximate unique counts");
+        if (!parser.parse(emailAddress, email).isValid())
+            return false;
+        EmailAddressAnalysis address = emailAddresses.get(email.getParsedEmailAddress());
+        if (address == null)
+            return false;
+        resort(sortedEmailAddresses, address, true);
+        if (!address.removeParsedEmail(email)) {
+            resort(sortedEmailAddresses, address, false);
+            return false;
+        }
+        if (address.getTotalCount() == 0) {
+            emailAddresses.remove(email.getParsedEmailAddress());
+            sortedEmailAddresses.remove(address);
+        } else
+            resort(sortedEmailAddresses, address, false);
+        DomainAnalysis domain = domains.get(email.getDomain());
+        resort(sortedDomains, domain, true);
+        domain.removeParsedEmail(email);
+        if (domain.getTotalEmailAddressCount() == 0) {
+            domains.remove(email.getDomain());
+            sortedDomains.remove(domain);
+        } else
+            resort(sortedDomains, domain, false);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes one occurrence of each email address from the results, returning the number which were removed.
+     */
+    public int removeAll(Collection<String> emailAddresses) {
+        int removed = 0;
+        for (String emailAddress : emailAddresses) {
+            if (remove(emailAddress)) removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Takes an analysis out of its sorted results before a change, or puts it back afterwards. Only occurrence
+     * ordering depends on the counts which change, so other orders leave the results in place.
+     */
+    private <T> void resort(TreeSet<T> sorted, T analysis, boolean beforeChange) {
+        if (parserConfig.order != EmailListOrder.OCCURRENCES)
+            return;
+        if (beforeChange)
+            sorted.remove(analysis);
+        else
+            sorted.add(analysis);
+    }
+
+    /**
+     * Returns the number of valid email addresses in the results, including duplicates.
+     */
+    public int size() {
+        return size;
+    }
+
+    public List<String> getValidDeduplicate() {
+        return sortedEmailAddresses.stream().map(EmailAddressAnalysis::getParsedEmailAddress).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the analysis results for each domain, as {@link EmailListContext#analyseDomains()} does. When ordered by
+     * occurrences, only the maximum number of results is returned, which are read from the front of the sorted results.
+     */
+    public List<DomainAnalysis> analyseDomains() {
+        if (parserConfig.order != EmailListOrder.OCCURRENCES || parserConfig.maxResults == null)
+            return new ArrayList<>(sortedDomains);
+        List<DomainAnalysis> results = new ArrayList<>(Math.min(parserConfig.maxResults, sortedDomains.size()));
+        Iterator<DomainAnalysis> iterator = sortedDomains.iterator();
+        while (results.size() < parserConfig.maxResults && iterator.hasNext()) results.add(iterator.next());
+        return results;
+    }
+
+    /**
+     * Returns the analysis results for each valid email address, combining any duplicates into a single result.
+     */
+    public List<EmailAddressAnalysis> analyseDeduplicatedEmailAddresses() {
+        return new ArrayList<>(sortedEmailAddresses);
+    }
+
+}
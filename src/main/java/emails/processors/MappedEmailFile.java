@@ -0,0 +1,292 @@
+package emails.processors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+import emails.analysis.DomainCounter;
+import emails.analysis.EmailListAnalysis;
+import emails.analysis.ParsedEmail;
+import emails.constants.EmailListOutput;
+
+/**
+ * Reads UTF-8 email addresses from a file, one per line, by memory-mapping it in chunks which are parsed in parallel.
+ * Chunk boundaries are moved to the start of a line, and each chunk is read from the mapping a block of bytes at a
+ * time, which is searched for line ends and parsed in place. Strings are only created for the parts of each address
+ * the results ask for, so counting domains doesn't create a string for each line.
+ *
+ * Lines are read as {@link EmailListContext#fromFile} reads them, ending at '\n', '\r' or "\r\n". Results for each
+ * chunk are merged in file order, so they are the same as reading the file on a single thread. Any error reading the
+ * file is thrown as an {@link UncheckedIOException}.
+ *
+ * With a {@link DelimitedColumn}, each line is a record and only the address in that column is parsed, in place. A
+ * header line, or a byte order mark before the first record, is read before the file is split into chunks.
+ */
+public class MappedEmailFile {
+
+    // Large enough to keep the workers busy between chunks, and small enough to split the file between them
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    // Mapped bytes are copied into a block on the heap in one go, where they are faster to search and parse
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private final Path file;
+    private final EmailValidationConfig validationConfig;
+    private final EmailParserConfig parserConfig;
+    private final int chunkSize;
+    private DelimitedColumn column;
+
+    public MappedEmailFile(Path file, EmailValidationConfig validator, EmailParserConfig parser) {
+        this(file, validator, parser, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a reader which maps the file in chunks of about the given size in bytes. Chunks are extended to the end
+     * of their last line.
+     */
+    public MappedEmailFile(Path file, EmailValidationConfig validator, EmailParserConfig parser, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.file = file;
+        this.validationConfig = validator == null ? EmailValidationConfig.generic() : validator;
+        this.parserConfig = parser == null ? EmailParserConfig.standard() : parser;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads the address from the given column of each line, rather than the whole line, or from the whole line if
+     * the column is null.
+     */
+    public MappedEmailFile setColumn(DelimitedColumn column) {
+        this.column = column;
+        return this;
+    }
+
+    /**
+     * Counts the valid email addresses in the file for each domain, using the common fork/join pool.
+     */
+    public DomainCounter countDomains() {
+        return countDomains(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Counts the valid email addresses in the file for each domain, using the threads of the given pool.
+     */
+    public DomainCounter countDomains(ForkJoinPool pool) {
+        return process(pool, DomainCounter::new, DomainCounter::addParsedEmail, (first, second) -> {
+            first.merge(second);
+            return first;
+        });
+    }
+
+    /**
+     * Performs the same analysis as {@link EmailListContext#analyse(EmailListOutput...)} over the lines of the file,
+     * using the threads of the given pool.
+     */
+    public EmailListAnalysis analyse(ForkJoinPool pool, EmailListOutput... outputs) {
+        List<EmailListOutput> chosen = Arrays.asList(outputs);
+        return process(pool, () -> new EmailListAnalysis(chosen, parserConfig.order, parserConfig.maxResults,
+                parserConfig.domainRetention, parserConfig.approximatePrecision, pool),
+                EmailListAnalysis::addParsedEmail, (first, second) -> {
+                    first.merge(second);
+                    return first;
+                });
+    }
+
+    /**
+     * Parses every line of the file into results created for each chunk, which are merged in file order. The parsed
+     * email given to the consumer is reused for the next line, so only its values may be kept.
+     */
+    public <T> T process(ForkJoinPool pool, Supplier<T> newResult, BiConsumer<T, ? super ParsedEmail> add,
+                         BinaryOperator<T> merge) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = 0;
+            DelimitedColumn fileColumn = column;
+            if (column != null && column.hasHeader()) {
+                start = Math.min(nextLineStart(channel, 1, ByteBuffer.allocate(8192)), channel.size());
+                byte[] header = readHeader(channel, start);
+                fileColumn = column.forHeader(header, 0, header.length);
+            } else if (column != null) {
+                start = byteOrderMarkLength(channel);
+            }
+            long[] boundaries = chunkBoundaries(channel, start);
+            return pool.invoke(new ChunkTask<>(channel, boundaries, 0, boundaries.length - 1, fileColumn, newResult,
+                    add, merge));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the first line of the file, which ends just before the given start of the second line, without its line
+     * end.
+     */
+    private static byte[] readHeader(FileChannel channel, long secondLine) throws IOException {
+        if (secondLine > Integer.MAX_VALUE)
+            throw new IOException("Header line is too long");
+        ByteBuffer header = ByteBuffer.allocate((int) secondLine);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        byte[] bytes = header.array();
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) length--;
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static int byteOrderMarkLength(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(3);
+        while (start.hasRemaining() && channel.read(start, start.position()) > 0) {
+        }
+        return DelimitedColumn.byteOrderMarkLength(start.array(), 0, start.position());
+    }
+
+    /**
+     * Returns the start of each chunk followed by the end of the file. The first chunk starts at the given position,
+     * and each chunk after the first starts just after a line end.
+     */
+    private long[] chunkBoundaries(FileChannel channel, long start) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(start);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = start + chunkSize;
+        while (position < size) {
+            long lineStart = nextLineStart(channel, position, buffer);
+            if (lineStart >= size)
+                break;
+            boundaries.add(lineStart);
+            position = lineStart + chunkSize;
+        }
+        boundaries.add(size);
+        long[] results = new long[boundaries.size()];
+        for (int i = 0; i < results.length; i++) results[i] = boundaries.get(i);
+        return results;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        // Start at the byte before, so a chunk which already starts a line isn't moved on to the next one
+        position--;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0)
+                return channel.size();
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n')
+                    return position + i + 1;
+                if (b == '\r') {
+                    // Keep "\r\n" together, checking the next byte even if it wasn't read with this block
+                    long next = position + i + 1;
+                    if (i + 1 < read)
+                        return buffer.get(i + 1) == '\n' ? next + 1 : next;
+                    ByteBuffer single = ByteBuffer.allocate(1);
+                    return channel.read(single, next) == 1 && single.get(0) == '\n' ? next + 1 : next;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Processes a range of chunks, splitting it in half until a single chunk is left. The results of the first half
+     * have the second half merged into them, so lines are combined in file order.
+     */
+    private class ChunkTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final int first;
+        private final int last;
+        private final DelimitedColumn column;
+        private final Supplier<T> newResult;
+        private final BiConsumer<T, ? super ParsedEmail> add;
+        private final BinaryOperator<T> merge;
+
+        ChunkTask(FileChannel channel, long[] boundaries, int first, int last, DelimitedColumn column,
+                  Supplier<T> newResult, BiConsumer<T, ? super ParsedEmail> add, BinaryOperator<T> merge) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+            this.column = column;
+            this.newResult = newResult;
+            this.add = add;
+            this.merge = merge;
+        }
+
+        @Override
+        protected T compute() {
+            if (last - first <= 1)
+                return processChunk(boundaries[first], boundaries[last]);
+            int middle = (first + last) >>> 1;
+            ChunkTask<T> firstHalf = new ChunkTask<>(channel, boundaries, first, middle, column, newResult,
+                    add, merge);
+            ChunkTask<T> secondHalf = new ChunkTask<>(channel, boundaries, middle, last, column, newResult,
+                    add, merge);
+            secondHalf.fork();
+            T result = firstHalf.compute();
+            return merge.apply(result, secondHalf.join());
+        }
+
+        private T processChunk(long start, long end) {
+            T result = newResult.get();
+            if (end <= start)
+                return result;
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            EmailParser parser = EmailParser.forCurrentThread(validationConfig, parserConfig);
+            EmailContext email = new EmailContext();
+            byte[] block = new byte[BLOCK_SIZE];
+            int filled = 0;
+            while (buffer.hasRemaining()) {
+                if (filled == block.length)
+                    block = Arrays.copyOf(block, block.length * 2);
+                int read = Math.min(block.length - filled, buffer.remaining());
+                buffer.get(block, filled, read);
+                filled += read;
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    byte b = block[i];
+                    if (b != '\n' && b != '\r')
+                        continue;
+                    if (b == '\r' && i + 1 == filled && buffer.hasRemaining())
+                        break;
+                    add.accept(result, parseLine(parser, block, lineStart, i - lineStart, email));
+                    if (b == '\r' && i + 1 < filled && block[i + 1] == '\n')
+                        i++;
+                    lineStart = i + 1;
+                }
+                // Move the start of an unfinished line to the front of the block, to be finished by the next read
+                System.arraycopy(block, lineStart, block, 0, filled - lineStart);
+                filled -= lineStart;
+            }
+            if (filled > 0)
+                add.accept(result, parseLine(parser, block, 0, filled, email));
+            return result;
+        }
+
+        private EmailContext parseLine(EmailParser parser, byte[] block, int start, int length, EmailContext email) {
+            return column == null ? parser.parse(block, start, length, email)
+                    : column.parse(parser, block, start, length, email);
+        }
+    }
+}
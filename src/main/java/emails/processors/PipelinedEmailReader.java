@@ -0,0 +1,337 @@
+package emails.processors;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+import emails.analysis.DomainCounter;
+import emails.analysis.EmailListAnalysis;
+import emails.analysis.ParsedEmail;
+import emails.constants.EmailListOutput;
+
+/**
+ * Reads UTF-8 email addresses, one per line, from a stream which can only be read in order, such as a gzip-compressed
+ * file or standard input. A reader thread reads and decompresses the input into blocks of whole lines, which are
+ * handed through a bounded queue to worker threads that parse them in place, so reading and parsing overlap. The queue
+ * holds a few blocks for each worker, so a slow worker holds up the reader rather than filling memory.
+ *
+ * Lines end at '\n', '\r' or "\r\n", as for {@link MappedEmailFile}. Results for each block are merged in input order,
+ * so they are the same as reading the input on a single thread. The input can only be read once, and any error
+ * reading it is thrown as an {@link UncheckedIOException}.
+ *
+ * With a {@link DelimitedColumn}, each line is a record and only the address in that column is parsed, in place. A
+ * header line, or a byte order mark before the first record, is read by the reader thread before the first block is
+ * handed on.
+ */
+public class PipelinedEmailReader {
+
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // Enough queued blocks to keep each worker busy while the reader fills the next one
+    private static final int BLOCKS_PER_WORKER = 2;
+
+    private static final Block END = new Block(-1, new byte[0], 0, 0, null);
+
+    private final InputStream input;
+    private final Path file;
+    private final EmailValidationConfig validationConfig;
+    private final EmailParserConfig parserConfig;
+    private final int blockSize;
+    private DelimitedColumn column;
+
+    /**
+     * Creates a reader over the stream, which is decompressed if it is gzip-compressed. The stream is not closed.
+     */
+    public PipelinedEmailReader(InputStream in, EmailValidationConfig validator, EmailParserConfig parser) {
+        this(in, null, validator, parser, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a reader over the stream which hands lines to the workers in blocks of about the given size in bytes.
+     * Blocks are extended to hold any line longer than a block.
+     */
+    public PipelinedEmailReader(InputStream in, EmailValidationConfig validator, EmailParserConfig parser, int blockSize) {
+        this(in, null, validator, parser, blockSize);
+    }
+
+    private PipelinedEmailReader(InputStream in, Path file, EmailValidationConfig validator, EmailParserConfig parser,
+                                 int blockSize) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive");
+        this.input = in;
+        this.file = file;
+        this.validationConfig = validator == null ? EmailValidationConfig.generic() : validator;
+        this.parserConfig = parser == null ? EmailParserConfig.standard() : parser;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Creates a reader which opens the file when it is processed, decompressing it if it is gzip-compressed.
+     */
+    public static PipelinedEmailReader fromFile(Path file, EmailValidationConfig validator, EmailParserConfig parser) {
+        return new PipelinedEmailReader(null, file, validator, parser, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Reads the address from the given column of each line, rather than the whole line, or from the whole line if
+     * the column is null.
+     */
+    public PipelinedEmailReader setColumn(DelimitedColumn column) {
+        this.column = column;
+        return this;
+    }
+
+    /**
+     * Counts the valid email addresses in the input for each domain, parsing on the given number of worker threads.
+     */
+    public DomainCounter countDomains(int workers) {
+        return process(workers, DomainCounter::new, DomainCounter::addParsedEmail, (first, second) -> {
+            first.merge(second);
+            return first;
+        });
+    }
+
+    /**
+     * Performs the same analysis as {@link EmailListContext#analyse(EmailListOutput...)} over the lines of the input,
+     * parsing on the given number of worker threads.
+     */
+    public EmailListAnalysis analyse(int workers, EmailListOutput... outputs) {
+        List<EmailListOutput> chosen = Arrays.asList(outputs);
+        return process(workers, () -> new EmailListAnalysis(chosen, parserConfig.order, parserConfig.maxResults,
+                parserConfig.domainRetention, parserConfig.approximatePrecision, null),
+                EmailListAnalysis::addParsedEmail, (first, second) -> {
+                    first.merge(second);
+                    return first;
+                });
+    }
+
+    /**
+     * Parses every line of the input into results created for each block, which are merged in input order. The parsed
+     * email given to the consumer is reused for the next line, so only its values may be kept. Returns once the whole
+     * input has been read and parsed.
+     */
+    public <T> T process(int workers, Supplier<T> newResult, BiConsumer<T, ? super ParsedEmail> add,
+                         BinaryOperator<T> merge) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("Number of workers must be positive");
+        BlockingQueue<Block> queue = new ArrayBlockingQueue<>(workers * BLOCKS_PER_WORKER);
+        OrderedResults<T> results = new OrderedResults<>(merge);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> read(queue), "email-reader"));
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(() -> parse(queue, newResult, add, results), "email-parser-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            // Stop every other thread on the first failure, so none is left waiting on the queue
+            thread.setUncaughtExceptionHandler((failed, e) -> {
+                if (failure.compareAndSet(null, e))
+                    threads.stream().filter(other -> other != failed).forEach(Thread::interrupt);
+            });
+        }
+        threads.forEach(Thread::start);
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while reading email addresses"));
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        return results.merged == null ? newResult.get() : results.merged;
+    }
+
+    /**
+     * Reads the input into blocks which end at the end of a line, handing each to the queue, followed by the end
+     * marker. A block is only handed on once it is full, or the input ends.
+     */
+    private void read(BlockingQueue<Block> queue) {
+        try (InputStream in = file != null ? CompressedInput.open(file) : CompressedInput.decompress(unclosed(input))) {
+            long sequence = 0;
+            DelimitedColumn blockColumn = column == null || column.hasHeader() ? null : column;
+            byte[] block = new byte[blockSize];
+            int filled = 0;
+            int read;
+            while ((read = in.read(block, filled, block.length - filled)) >= 0) {
+                filled += read;
+                if (filled < block.length)
+                    continue;
+                int end = lastLineEnd(block, filled);
+                if (end == 0) {
+                    block = Arrays.copyOf(block, block.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[Math.max(blockSize, filled - end)];
+                System.arraycopy(block, end, next, 0, filled - end);
+                int start = sequence == 0 ? recordsStart(block, end) : 0;
+                if (blockColumn == null && column != null)
+                    blockColumn = column.forHeader(block, 0, lineLength(block, start));
+                queue.put(new Block(sequence++, block, start, end, blockColumn));
+                block = next;
+                filled -= end;
+            }
+            if (filled > 0) {
+                int start = sequence == 0 ? recordsStart(block, filled) : 0;
+                if (blockColumn == null && column != null)
+                    blockColumn = column.forHeader(block, 0, lineLength(block, start));
+                queue.put(new Block(sequence, block, start, filled, blockColumn));
+            }
+            queue.put(END);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            // Another thread failed and has already been recorded
+        }
+    }
+
+    /**
+     * Returns where the records of the first block start, after any header line or byte order mark before the first
+     * record of delimited records.
+     */
+    private int recordsStart(byte[] block, int length) {
+        if (column == null)
+            return 0;
+        if (column.hasHeader())
+            return firstLineEnd(block, length);
+        return DelimitedColumn.byteOrderMarkLength(block, 0, length);
+    }
+
+    /**
+     * Returns the index just after the last complete line end in the block, or 0 if there is none. A '\r' as the last
+     * byte isn't complete, as it may be followed by a '\n' still to be read.
+     */
+    private static int lastLineEnd(byte[] block, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (block[i] == '\n' || block[i] == '\r' && i < length - 1)
+                return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index just after the first line end in the block, or its length if it is a single line.
+     */
+    private static int firstLineEnd(byte[] block, int length) {
+        for (int i = 0; i < length; i++) {
+            if (block[i] == '\n')
+                return i + 1;
+            if (block[i] == '\r')
+                return i + 1 < length && block[i + 1] == '\n' ? i + 2 : i + 1;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length of the line ending just before the given index, without its line end.
+     */
+    private static int lineLength(byte[] block, int end) {
+        while (end > 0 && (block[end - 1] == '\n' || block[end - 1] == '\r')) end--;
+        return end;
+    }
+
+    private <T> void parse(BlockingQueue<Block> queue, Supplier<T> newResult, BiConsumer<T, ? super ParsedEmail> add,
+                           OrderedResults<T> results) {
+        EmailParser parser = new EmailParser(validationConfig, parserConfig);
+        EmailContext email = new EmailContext();
+        try {
+            Block block;
+            while ((block = queue.take()) != END) {
+                T result = newResult.get();
+                byte[] bytes = block.bytes;
+                DelimitedColumn blockColumn = block.column;
+                int lineStart = block.start;
+                for (int i = block.start; i < block.length; i++) {
+                    byte b = bytes[i];
+                    if (b != '\n' && b != '\r')
+                        continue;
+                    add.accept(result, blockColumn == null ? parser.parse(bytes, lineStart, i - lineStart, email)
+                            : blockColumn.parse(parser, bytes, lineStart, i - lineStart, email));
+                    if (b == '\r' && i + 1 < block.length && bytes[i + 1] == '\n')
+                        i++;
+                    lineStart = i + 1;
+                }
+                if (lineStart < block.length)
+                    add.accept(result, blockColumn == null ? parser.parse(bytes, lineStart, block.length - lineStart, email)
+                            : blockColumn.parse(parser, bytes, lineStart, block.length - lineStart, email));
+                results.add(block.sequence, result);
+            }
+            // Leave the end marker for the other workers
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Another thread failed and has already been recorded
+        }
+    }
+
+    /**
+     * Wraps the stream so the reader thread can close what it opens around it without closing the stream itself.
+     */
+    private static InputStream unclosed(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Lines read from the input, numbered in input order, along with the column to parse, found from any header.
+     */
+    private static class Block {
+
+        private final long sequence;
+        private final byte[] bytes;
+        private final int start;
+        private final int length;
+        private final DelimitedColumn column;
+
+        Block(long sequence, byte[] bytes, int start, int length, DelimitedColumn column) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Merges the results of each block in input order, holding results which finish early until those before them
+     * are merged.
+     */
+    private static class OrderedResults<T> {
+
+        private final BinaryOperator<T> merge;
+        private final Map<Long, T> waiting = new HashMap<>();
+        private long next;
+        private T merged;
+
+        OrderedResults(BinaryOperator<T> merge) {
+            this.merge = merge;
+        }
+
+        synchronized void add(long sequence, T result) {
+            waiting.put(sequence, result);
+            for (T ready; (ready = waiting.remove(next)) != null; next++) {
+                merged = merged == null ? ready : merge.apply(merged, ready);
+            }
+        }
+    }
+}
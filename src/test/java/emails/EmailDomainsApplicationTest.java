@@ -0,0 +1,149 @@
+package emails;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import emails.constants.FilterOutput;
+import emails.processors.EmailLineFilter;
+
+public class EmailDomainsApplicationTest {
+
+    private static final String INPUT = String.join("\n",
+            "first@aol.com",
+            "invalidemail",
+            "Second+sub@AOL.com",
+            "third@gmail.com",
+            "first@aol.com");
+
+    @Test
+    public void operationsReadStandardInput() throws IOException {
+        Assert.assertEquals("first@aol.com\nSecond+sub@aol.com\nthird@gmail.com\nfirst@aol.com\n",
+                run("validate", "--quiet"));
+        Assert.assertEquals("invalidemail\n", run("validate", "--emit", "rejected", "--quiet"));
+        Assert.assertEquals("email\nfirst@aol.com\nsecond@aol.com\nthird@gmail.com\n",
+                run("dedupe", "--parser", "canonical", "--format", "csv", "--quiet"));
+        Assert.assertEquals("[\n  {\"domain\": \"aol.com\", \"count\": 3}\n]\n",
+                run("top", "--top", "1", "--format", "json", "--quiet"));
+    }
+
+    @Test
+    public void filterReadsLinesAcrossBlocks() throws IOException {
+        String input = "first@aol.com\r\ninvalidemail\rSecond+sub@AOL.com\n\nthird@gmail.com";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EmailLineFilter filter = new EmailLineFilter(null, null, FilterOutput.ACCEPTED, 4);
+        filter.filter(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        Assert.assertEquals("first@aol.com\nSecond+sub@AOL.com\nthird@gmail.com\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals(5, filter.getLinesRead());
+        Assert.assertEquals(3, filter.getLinesWritten());
+    }
+
+    @Test
+    public void filterStopsReadingWhenOutputFails() {
+        byte[] input = String.join("\n", Collections.nCopies(1000, "first@aol.com")).getBytes(StandardCharsets.UTF_8);
+        for (OutputStream out : new OutputStream[]{new FailingOutputStream(), new PrintStream(new FailingOutputStream())}) {
+            ByteArrayInputStream in = new ByteArrayInputStream(input);
+            try {
+                new EmailLineFilter(null, null, FilterOutput.ACCEPTED, 64).filter(in, out);
+                Assert.fail("Output failure wasn't thrown");
+            } catch (IOException e) {
+                Assert.assertTrue(in.available() > input.length / 2);
+            }
+        }
+    }
+
+    @Test
+    public void compressedStandardInputIsDecompressed() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(INPUT.getBytes(StandardCharsets.UTF_8));
+        }
+        for (String operation : new String[]{"validate", "dedupe", "domains"})
+            Assert.assertEquals(run(operation, "--quiet"), run(compressed.toByteArray(), operation, "--quiet"));
+        Assert.assertEquals("aol.com 3\ngmail.com 1\n", run(compressed.toByteArray(), "domains", "--threads", "2", "--quiet"));
+    }
+
+    @Test
+    public void columnIsReadFromDelimitedRecords() throws IOException {
+        byte[] records = ("name\temail\nFirst\tfirst@aol.com\n\"Invalid\"\tinvalidemail\nThird\t\"third@gmail.com\"\n")
+                .getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("first@aol.com\nthird@gmail.com\n",
+                run(records, "validate", "--column", "email", "--delimiter", "tab", "--quiet"));
+        Assert.assertEquals("name\temail\n\"Invalid\"\tinvalidemail\n",
+                run(records, "validate", "--column", "2", "--header", "--delimiter", "tab", "--emit", "rejected", "--quiet"));
+        Assert.assertEquals("aol.com 1\ngmail.com 1\n",
+                run(records, "domains", "--column", "email", "--delimiter", "tab", "--quiet"));
+        Assert.assertEquals("email\nfirst@aol.com\nthird@gmail.com\n",
+                run(records, "dedupe", "--column", "email", "--delimiter", "tab", "--format", "csv", "--quiet"));
+    }
+
+    @Test
+    public void emittedRecordsAreWrittenWhole() throws IOException {
+        byte[] records = "id,email\n1,first@aol.com\n2,invalidemail\n".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("id,email\n2,invalidemail\n",
+                run(records, "validate", "--column", "email", "--emit", "rejected", "--quiet"));
+        Assert.assertEquals("record\n\"2,invalidemail\"\n",
+                run(records, "validate", "--column", "email", "--emit", "rejected", "--format", "csv", "--quiet"));
+        Assert.assertEquals("[\n  \"1,first@aol.com\"\n]\n",
+                run(records, "validate", "--column", "email", "--emit", "accepted", "--format", "json", "--quiet"));
+        Assert.assertEquals("email\nfirst@aol.com\n",
+                run(records, "validate", "--column", "email", "--format", "csv", "--quiet"));
+    }
+
+    @Test
+    public void missingColumnNamesAreRejected() throws IOException {
+        byte[] records = "name,mail\nFirst,first@aol.com\n".getBytes(StandardCharsets.UTF_8);
+        for (String operation : new String[]{"validate", "dedupe", "domains"}) {
+            try {
+                run(records, operation, "--column", "email", "--quiet");
+                Assert.fail("Missing column wasn't rejected by " + operation);
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("No column named email in the header", e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void outputErrorsStopTheOperation() throws IOException {
+        EmailDomainsApplication.run(CommandLineOptions.parse("validate", "--format", "csv", "--quiet"),
+                new ByteArrayInputStream(INPUT.getBytes(StandardCharsets.UTF_8)), new FailingOutputStream(),
+                new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOptionsAreRejected() {
+        CommandLineOptions.parse("top", "--top", "none");
+    }
+
+    private static String run(String... args) throws IOException {
+        return run(INPUT.getBytes(StandardCharsets.UTF_8), args);
+    }
+
+    private static String run(byte[] input, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EmailDomainsApplication.run(CommandLineOptions.parse(args), new ByteArrayInputStream(input), out,
+                new PrintStream(new ByteArrayOutputStream()));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fails every write, as standard output does once the disk is full or the pipe is closed.
+     */
+    private static class FailingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+    }
+
+}
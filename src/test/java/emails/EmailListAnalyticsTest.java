@@ -139,4 +139,14 @@ public class EmailListAnalyticsTest {
         Assert.assertEquals("When domains have the same counts they should be sorted by domain", "aol09.com 2", result.get(9));
     }
 
+    @Test
+    public void noMaxResultsReturnsAllItems() {
+        List<String> testInput = new ArrayList<>();
+        for (int i = 0; i <= 50; i++) {
+            testInput.add("testaddress@testdomain" + i + ".com");
+        }
+        List<String> result = EmailListAnalytics.listDomainsByCount(testInput);
+        Assert.assertEquals("Output should not be limited", 51, result.size());
+    }
+
 }
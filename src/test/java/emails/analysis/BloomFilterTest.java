@@ -0,0 +1,29 @@
+package emails.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void addedValuesAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) Assert.assertTrue(filter.put("local" + i + "@example.com") || i > 0);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(filter.mightContain("local" + i + "@example.com"));
+            Assert.assertFalse(filter.put("local" + i + "@example.com"));
+        }
+    }
+
+    @Test
+    public void falsePositivesAreNearTheRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) filter.put("local" + i + "@example.com");
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("other" + i + "@example.com")) falsePositives++;
+        }
+        Assert.assertTrue(String.valueOf(falsePositives), falsePositives < 1500);
+    }
+
+}
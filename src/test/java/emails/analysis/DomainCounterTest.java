@@ -0,0 +1,32 @@
+package emails.analysis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DomainCounterTest {
+
+    @Test
+    public void countsMatchHashMap() {
+        DomainCounter counter = new DomainCounter();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String domain = "domain" + random.nextInt(5000) + ".com";
+            counter.add(domain);
+            expected.merge(domain, 1, Integer::sum);
+        }
+        Assert.assertEquals(expected.size(), counter.size());
+        Assert.assertEquals(100000, counter.getTotalCount());
+        expected.forEach((domain, count) -> Assert.assertEquals((int) count, counter.getCount(domain)));
+        Assert.assertEquals(0, counter.getCount("missing.com"));
+
+        DomainCount top = counter.getTopDomains(1).get(0);
+        Assert.assertEquals(expected.values().stream().mapToInt(Integer::intValue).max().getAsInt(), top.getCount());
+        Assert.assertEquals(expected.size(), counter.getTopDomains(null).size());
+    }
+
+}
@@ -0,0 +1,48 @@
+package emails.analysis;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void countsAreExactWithinCapacity() {
+        HeavyHitters heavyHitters = new HeavyHitters(10);
+        for (int i = 0; i < 100; i++) heavyHitters.add("domain" + i % 5 + ".com");
+        heavyHitters.add("domain3.com");
+
+        List<HeavyHitters.HeavyHitter> results = heavyHitters.getTopResults(2);
+        Assert.assertEquals("domain3.com", results.get(0).getValue());
+        Assert.assertEquals(21, results.get(0).getCount());
+        Assert.assertEquals("Equal counts should be ordered by domain", "domain0.com", results.get(1).getValue());
+        Assert.assertEquals(0, results.get(1).getError());
+        Assert.assertEquals(0, heavyHitters.getMaximumError());
+    }
+
+    @Test
+    public void frequentDomainsAreFoundWithinErrorBounds() {
+        Random random = new Random(5);
+        HeavyHitters heavyHitters = new HeavyHitters(100);
+        int[] frequentCounts = new int[5];
+        for (int i = 0; i < 100000; i++) {
+            if (random.nextInt(4) == 0) {
+                int frequent = random.nextInt(frequentCounts.length);
+                frequentCounts[frequent]++;
+                heavyHitters.add("frequent" + frequent + ".com");
+            } else heavyHitters.add("rare" + random.nextInt(50000) + ".com");
+        }
+
+        List<HeavyHitters.HeavyHitter> results = heavyHitters.getTopResults(5);
+        for (HeavyHitters.HeavyHitter result : results) {
+            Assert.assertTrue(result.getValue().startsWith("frequent"));
+            int trueCount = frequentCounts[result.getValue().charAt(8) - '0'];
+            Assert.assertTrue(result.getLowerBound() <= trueCount && trueCount <= result.getCount());
+            Assert.assertTrue(result.isGuaranteed());
+        }
+        Assert.assertTrue(heavyHitters.getMaximumError() <= heavyHitters.getTotalCount() / heavyHitters.getCapacity());
+    }
+
+}
@@ -0,0 +1,48 @@
+package emails.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void smallCountsAreExact() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 300; i++) sketch.add("local" + (i % 100));
+        Assert.assertEquals(100, sketch.estimate());
+        Assert.assertEquals(0, sketch.getRelativeError(), 0);
+    }
+
+    @Test
+    public void largeCountsAreWithinErrorBounds() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 200000; i++) sketch.add("local" + i);
+        ApproximateCount count = sketch.count();
+        Assert.assertTrue(count.toString(), count.getLowerBound() <= 200000 && count.getUpperBound() >= 200000);
+        Assert.assertEquals(0.01625, count.getRelativeError(), 0.0001);
+    }
+
+    @Test
+    public void mergedSketchesCountUnion() {
+        HyperLogLog first = new HyperLogLog(10);
+        HyperLogLog second = new HyperLogLog(10);
+        HyperLogLog both = new HyperLogLog(10);
+        for (int i = 0; i < 50000; i++) {
+            (i % 3 == 0 ? first : second).add("local" + i);
+            both.add("local" + i);
+        }
+        first.merge(HyperLogLog.fromByteArray(second.toByteArray()));
+        Assert.assertEquals(both.estimate(), first.estimate());
+
+        HyperLogLog small = new HyperLogLog(10);
+        small.add("local1");
+        small.merge(HyperLogLog.fromByteArray(new HyperLogLog(10).toByteArray()));
+        Assert.assertEquals(1, small.estimate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentPrecisionsCannotMerge() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+
+}
@@ -0,0 +1,39 @@
+package emails.analysis;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopResultsTest {
+
+    // Compares only the count, so that ties must be broken by position in the list
+    private static final Comparator<int[]> BY_COUNT = (o1, o2) -> o2[0] - o1[0];
+
+    @Test
+    public void selectionMatchesStableSort() {
+        Random random = new Random(3);
+        List<int[]> items = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) items.add(new int[]{random.nextInt(500), i});
+
+        List<int[]> sorted = new ArrayList<>(items);
+        sorted.sort(BY_COUNT);
+        for (int limit : new int[]{0, 1, 10, 1000, 200000}) {
+            List<int[]> expected = sorted.subList(0, Math.min(limit, sorted.size()));
+            Assert.assertEquals(positions(expected), positions(TopResults.select(items, BY_COUNT, limit, null)));
+            Assert.assertEquals(positions(expected),
+                    positions(TopResults.select(items, BY_COUNT, limit, ForkJoinPool.commonPool())));
+        }
+    }
+
+    private static List<Integer> positions(List<int[]> items) {
+        List<Integer> positions = new ArrayList<>();
+        for (int[] item : items) positions.add(item[1]);
+        return positions;
+    }
+
+}
@@ -0,0 +1,38 @@
+package emails.analysis;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WindowedDomainCountsTest {
+
+    private static final long MINUTE = 60000;
+
+    @Test
+    public void countsOnlyWithinTheWindow() {
+        WindowedDomainCounts counts = new WindowedDomainCounts(Duration.ofMinutes(1), 5);
+        for (int minute = 0; minute < 10; minute++) {
+            for (int i = 0; i <= minute; i++) counts.add("minute" + minute + ".com", minute * MINUTE + i);
+            counts.add("every.com", minute * MINUTE);
+        }
+        Assert.assertEquals("[minute9.com 10, minute8.com 9, minute7.com 8]", describe(counts.getTopDomains(3)));
+        Assert.assertEquals(10 + 9 + 8 + 7 + 6 + 5, counts.getTotalCount());
+        Assert.assertEquals("[minute9.com 10, minute8.com 9, every.com 2]",
+                describe(counts.getTopDomains(Duration.ofSeconds(90), 5)));
+
+        Assert.assertFalse(counts.add("late.com", 4 * MINUTE));
+        Assert.assertTrue(counts.add("late.com", 5 * MINUTE));
+
+        counts.advanceTo(20 * MINUTE);
+        Assert.assertEquals(0, counts.getTotalCount());
+        Assert.assertTrue(counts.getTopDomains(3).isEmpty());
+    }
+
+    private static String describe(List<DomainCount> counts) {
+        return counts.stream().map(DomainCount::toString).collect(Collectors.toList()).toString();
+    }
+
+}
@@ -0,0 +1,105 @@
+package emails.processors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import emails.analysis.EmailListAnalysis;
+import emails.constants.EmailListOutput;
+import emails.constants.FilterOutput;
+
+public class DelimitedColumnTest {
+
+    private static final String EXPORT = String.join("\r\n",
+            "\uFEFFid,Name,\"E-mail \",notes",
+            "1,Ann,ann@aol.com,",
+            "2,\"Smith, Bob\",bob@gmail.com,\"says \"\"hi\"\"\"",
+            "3,Cat,\"cat@aol.com\"",
+            "4,Dan,\"\"\"dan\"\"@aol.com\"",
+            "5,Eve",
+            "6,Fay,not an address,x");
+
+    @Test
+    public void columnValuesAreFoundInRecords() {
+        DelimitedColumn column = DelimitedColumn.custom().setColumnName("e-mail").build();
+        Assert.assertEquals(Arrays.asList("ann@aol.com", "bob@gmail.com", "cat@aol.com", "\"dan\"@aol.com", "",
+                "not an address"), column.values(Stream.of(EXPORT.split("\r\n"))).collect(Collectors.toList()));
+
+        DelimitedColumn tabs = DelimitedColumn.custom().setDelimiter('\t').setColumnIndex(1).build();
+        Assert.assertEquals("b,c@d.com", tabs.value("a\tb,c@d.com\te"));
+        Assert.assertEquals("", tabs.value("a"));
+    }
+
+    @Test
+    public void byteOrderMarkIsSkippedBeforeFirstRecord() throws IOException {
+        DelimitedColumn column = DelimitedColumn.custom().setColumnIndex(1).build();
+        String records = "\uFEFF1,ann@aol.com\n2,bob@gmail.com\n";
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList("ann@aol.com", "bob@gmail.com"),
+                column.values(Stream.of(records.split("\n"))).collect(Collectors.toList()));
+
+        DelimitedColumn first = DelimitedColumn.custom().setColumnIndex(0).build();
+        List<String> expected = Arrays.asList("ann@aol.com", "bob@gmail.com");
+        byte[] addresses = "\uFEFFann@aol.com\nbob@gmail.com\n".getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("emails", ".csv");
+        try {
+            Files.write(file, addresses);
+            Assert.assertEquals(expected, EmailListContext.fromFile(file, first, null, null)
+                    .analyse(EmailListOutput.VALID).getValid());
+            Assert.assertEquals(expected, new MappedEmailFile(file, null, null).setColumn(first)
+                    .analyse(ForkJoinPool.commonPool(), EmailListOutput.VALID).getValid());
+            Assert.assertEquals(expected, new PipelinedEmailReader(new ByteArrayInputStream(addresses), null, null, 4)
+                    .setColumn(first).analyse(2, EmailListOutput.VALID).getValid());
+        } finally {
+            Files.delete(file);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EmailLineFilter(null, null, FilterOutput.ACCEPTED).setColumn(column)
+                .filter(new ByteArrayInputStream(bytes), out);
+        Assert.assertEquals("1,ann@aol.com\n2,bob@gmail.com\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingColumnNameIsRejected() {
+        DelimitedColumn.custom().setColumnName("email").build().forHeader("id,name");
+    }
+
+    @Test
+    public void readersParseColumnInPlace() throws IOException {
+        DelimitedColumn column = DelimitedColumn.custom().setColumnName("E-mail").build();
+        byte[] bytes = EXPORT.getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("emails", ".csv");
+        try {
+            Files.write(file, bytes);
+            EmailListAnalysis expected = EmailListContext.fromFile(file, column, null, null)
+                    .analyse(EmailListOutput.VALID);
+            Assert.assertEquals(Arrays.asList("ann@aol.com", "bob@gmail.com", "cat@aol.com"),
+                    expected.getValid());
+
+            for (int chunkSize : new int[]{1, 40, Integer.MAX_VALUE}) {
+                EmailListAnalysis mapped = new MappedEmailFile(file, null, null, chunkSize).setColumn(column)
+                        .analyse(ForkJoinPool.commonPool(), EmailListOutput.VALID);
+                Assert.assertEquals(expected.getValid(), mapped.getValid());
+            }
+            for (int blockSize : new int[]{1, 40, 1 << 20}) {
+                EmailListAnalysis pipelined = new PipelinedEmailReader(new ByteArrayInputStream(bytes), null, null,
+                        blockSize).setColumn(column).analyse(2, EmailListOutput.VALID);
+                Assert.assertEquals(expected.getValid(), pipelined.getValid());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
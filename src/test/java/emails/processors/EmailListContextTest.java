@@ -0,0 +1,281 @@
+package emails.processors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import emails.analysis.DomainAnalysis;
+import emails.analysis.EmailAddressAnalysis;
+import emails.analysis.EmailListAnalysis;
+import emails.constants.DomainRetention;
+import emails.constants.EmailListOrder;
+import emails.constants.EmailListOutput;
+import emails.constants.InvalidReason;
+
+public class EmailListContextTest {
+
+    private static final List<String> TEST_LIST = Arrays.asList(
+            "invalidemail",
+            "two@rules@address.com",
+            "a1@emample.com",
+            "a1+subaddress@emample.com",
+            "z3@java.net",
+            "duplicate@duplicate.com",
+            "duplicate@duplicate.com",
+            "DUPLIcate@duplicate.com",
+            "(comment)rules@address.com",
+            "\"quoted\"@java.net"
+    );
+
+    @Test
+    public void singlePassMatchesSeparateResults() {
+        EmailListContext context = new EmailListContext(TEST_LIST);
+        EmailListAnalysis analysis = context.analyse(EmailListOutput.VALID, EmailListOutput.VALID_DEDUPLICATE,
+                EmailListOutput.DOMAINS, EmailListOutput.EMAIL_ADDRESSES);
+
+        Assert.assertEquals(context.getValid(), analysis.getValid());
+        Assert.assertEquals(context.getValidDeduplicate(), analysis.getValidDeduplicate());
+        Assert.assertEquals(context.analyseDomains().size(), analysis.getDomains().size());
+        Assert.assertEquals("duplicate.com", analysis.getDomains().get(0).getDomain());
+        Assert.assertEquals(6, analysis.getEmailAddresses().size());
+    }
+
+    @Test
+    public void onlyChosenOutputsAreCollected() {
+        EmailListAnalysis analysis = new EmailListContext(TEST_LIST).analyse(EmailListOutput.INVALID_REASONS);
+
+        Assert.assertNull(analysis.getValid());
+        Assert.assertNull(analysis.getDomains());
+        Assert.assertEquals(Integer.valueOf(1), analysis.getInvalidReasons().get(InvalidReason.NO_AT_SYMBOL));
+        Assert.assertEquals(Integer.valueOf(1), analysis.getInvalidReasons().get(InvalidReason.MULTIPLE_AT_SYMBOLS));
+        Assert.assertEquals(Integer.valueOf(1), analysis.getInvalidReasons().get(InvalidReason.HAS_COMMENTS));
+        Assert.assertEquals(Integer.valueOf(1), analysis.getInvalidReasons().get(InvalidReason.HAS_QUOTES));
+    }
+
+    @Test
+    public void domainRetentionControlsKeptValues() {
+        List<String> emailAddresses = Arrays.asList("a@duplicate.com", "a+x@duplicate.com", "a+x@duplicate.com", "b@duplicate.com");
+        for (DomainRetention retention : DomainRetention.values()) {
+            EmailParserConfig parser = EmailParserConfig.custom().includeSubAddresses(false).setDomainRetention(retention).build();
+            DomainAnalysis domain = new EmailListContext(emailAddresses, null, parser).analyseDomains().get(0);
+
+            Assert.assertEquals(4, domain.getTotalEmailAddressCount());
+            Assert.assertEquals(2, domain.getTotalSubAddressCount());
+            Assert.assertEquals(retention == DomainRetention.COUNTS ? -1 : 2, domain.getUniqueEmailAddressCount());
+            Assert.assertEquals(retention == DomainRetention.COUNTS ? -1 : 1, domain.getUniqueSubAddressCount());
+            Assert.assertEquals(retention == DomainRetention.FULL ? Arrays.asList("a", "a", "a", "b") : null,
+                    domain.getLocalParts());
+        }
+    }
+
+    @Test
+    public void streamingInputsMatchCollection() throws IOException {
+        List<String> expected = new EmailListContext(TEST_LIST).getValid();
+        Assert.assertEquals(expected, EmailListContext.fromIterator(TEST_LIST.iterator(), null, null).getValid());
+        Assert.assertEquals(expected, EmailListContext.fromStream(TEST_LIST.stream(), null, null).getValid());
+        Assert.assertEquals(expected, EmailListContext.fromReader(
+                new StringReader(String.join("\n", TEST_LIST)), null, null).getValid());
+
+        Path file = Files.createTempFile("emails", ".txt");
+        try {
+            Files.write(file, TEST_LIST, StandardCharsets.UTF_8);
+            EmailListContext context = EmailListContext.fromFile(file, null, null);
+            Assert.assertEquals(expected, context.getValid());
+            Assert.assertEquals("File should be read again for each result", expected, context.getValid());
+            Assert.assertEquals(expected, context.analyseParallel(EmailListOutput.VALID).getValid());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void mappedFileMatchesStreamingFile() throws IOException {
+        List<String> emailAddresses = randomEmailAddresses(5000);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < emailAddresses.size(); i++) {
+            content.append(emailAddresses.get(i)).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+        }
+        Path file = Files.createTempFile("emails", ".txt");
+        try {
+            Files.write(file, content.append("last@emample.com").toString().getBytes(StandardCharsets.UTF_8));
+            EmailListContext context = EmailListContext.fromFile(file, EmailValidationConfig.strict(), null);
+            EmailListAnalysis expected = context.analyse(EmailListOutput.VALID, EmailListOutput.DOMAINS);
+            for (int chunkSize : new int[]{1, 100, 4096, Integer.MAX_VALUE}) {
+                MappedEmailFile mapped = new MappedEmailFile(file, EmailValidationConfig.strict(), null, chunkSize);
+                EmailListAnalysis analysis = mapped.analyse(ForkJoinPool.commonPool(), EmailListOutput.VALID,
+                        EmailListOutput.DOMAINS);
+                Assert.assertEquals(expected.getValid(), analysis.getValid());
+                Assert.assertEquals(describeDomains(expected.getDomains()), describeDomains(analysis.getDomains()));
+                Assert.assertEquals(context.countDomains().getTopDomains(null).toString(),
+                        mapped.countDomains().getTopDomains(null).toString());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void compressedFileMatchesPlainFile() throws IOException {
+        List<String> emailAddresses = randomEmailAddresses(5000);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < emailAddresses.size(); i++) {
+            content.append(emailAddresses.get(i)).append(i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+        }
+        byte[] bytes = content.append("last@emample.com").toString().getBytes(StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("emails", ".txt");
+        Path compressed = Files.createTempFile("emails", ".txt.gz");
+        try {
+            Files.write(file, bytes);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+                out.write(bytes);
+            }
+            EmailListAnalysis expected = EmailListContext.fromFile(file, EmailValidationConfig.strict(), null)
+                    .analyse(EmailListOutput.VALID, EmailListOutput.DOMAINS);
+            EmailListAnalysis decompressed = EmailListContext.fromFile(compressed, EmailValidationConfig.strict(), null)
+                    .analyse(EmailListOutput.VALID, EmailListOutput.DOMAINS);
+            Assert.assertEquals(expected.getValid(), decompressed.getValid());
+            for (int blockSize : new int[]{1, 100, 4096, 1 << 20}) {
+                for (int workers : new int[]{1, 3}) {
+                    try (InputStream in = Files.newInputStream(compressed)) {
+                        EmailListAnalysis analysis = new PipelinedEmailReader(in, EmailValidationConfig.strict(), null,
+                                blockSize).analyse(workers, EmailListOutput.VALID, EmailListOutput.DOMAINS);
+                        Assert.assertEquals(expected.getValid(), analysis.getValid());
+                        Assert.assertEquals(describeDomains(expected.getDomains()), describeDomains(analysis.getDomains()));
+                    }
+                }
+            }
+            Assert.assertEquals(new MappedEmailFile(file, EmailValidationConfig.strict(), null).countDomains()
+                            .getTopDomains(null).toString(),
+                    PipelinedEmailReader.fromFile(file, EmailValidationConfig.strict(), null).countDomains(2)
+                            .getTopDomains(null).toString());
+        } finally {
+            Files.delete(file);
+            Files.delete(compressed);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spilledDeduplicationNeedsMemoryBudget() {
+        new EmailListContext(TEST_LIST).streamValidDeduplicate(0);
+    }
+
+    @Test
+    public void spilledDeduplicationMatchesInMemory() {
+        List<String> emailAddresses = randomEmailAddresses(5000);
+        for (EmailListOrder order : EmailListOrder.values()) {
+            EmailParserConfig parser = EmailParserConfig.custom().setListOrder(order).setCaseSensitive(false).build();
+            EmailListContext context = new EmailListContext(emailAddresses, EmailValidationConfig.strict(), parser);
+            List<String> expected = context.getValidDeduplicate();
+            // The smallest budget spills far more runs than are merged at once
+            for (long memoryBudget : new long[]{200, 1000, 20000, Long.MAX_VALUE}) {
+                try (Stream<String> deduplicated = context.streamValidDeduplicate(memoryBudget)) {
+                    Assert.assertEquals(expected, deduplicated.collect(Collectors.toList()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void duplicateFilterKeepsExactResults() {
+        List<String> emailAddresses = randomEmailAddresses(5000);
+        for (EmailListOrder order : EmailListOrder.values()) {
+            EmailParserConfig parser = EmailParserConfig.custom().setListOrder(order).build();
+            EmailParserConfig filtered = EmailParserConfig.custom().setListOrder(order).setDuplicateFilter(100, 0.1).build();
+            List<String> expected = new EmailListContext(emailAddresses, EmailValidationConfig.strict(), parser)
+                    .getValidDeduplicate();
+            EmailListContext context = new EmailListContext(emailAddresses, EmailValidationConfig.strict(), filtered);
+            Assert.assertEquals(expected, context.getValidDeduplicate());
+            Assert.assertEquals(expected, context.analyseParallel(EmailListOutput.VALID_DEDUPLICATE).getValidDeduplicate());
+            // Sections of a parallel analysis size their filters for themselves rather than for the configured size
+            EmailParserConfig large = EmailParserConfig.custom().setListOrder(order).setDuplicateFilter(1L << 30, 0.01).build();
+            Assert.assertEquals(expected, new EmailListContext(emailAddresses, EmailValidationConfig.strict(), large)
+                    .analyseParallel(EmailListOutput.VALID_DEDUPLICATE).getValidDeduplicate());
+        }
+
+        EmailListContext context = new EmailListContext(emailAddresses, EmailValidationConfig.strict(), null);
+        Assert.assertEquals(context.getValidDeduplicate(), context.streamApproximateDeduplicate(100000, 0.0001)
+                .sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void incrementalContextMatchesReanalysis() {
+        List<String> emailAddresses = randomEmailAddresses(3000);
+        for (EmailListOrder order : EmailListOrder.values()) {
+            EmailParserConfig parser = EmailParserConfig.custom().setListOrder(order).setMaxResults(10).build();
+            IncrementalEmailListContext incremental = new IncrementalEmailListContext(EmailValidationConfig.strict(), parser);
+            List<String> remaining = new ArrayList<>(emailAddresses.subList(0, 2000));
+            Assert.assertEquals(incremental.addAll(remaining), incremental.size());
+            Random random = new Random(2);
+            for (int i = 0; i < 500; i++) {
+                String removed = remaining.remove(random.nextInt(remaining.size()));
+                incremental.remove(removed);
+                String added = emailAddresses.get(2000 + i);
+                remaining.add(added);
+                incremental.add(added);
+            }
+            Assert.assertFalse(incremental.remove("missing@emample.com"));
+
+            EmailListContext context = new EmailListContext(remaining, EmailValidationConfig.strict(), parser);
+            Assert.assertEquals(context.getValidDeduplicate(), incremental.getValidDeduplicate());
+            Assert.assertEquals(describeDomains(context.analyseDomains()), describeDomains(incremental.analyseDomains()));
+            Assert.assertEquals(context.getValid().size(), incremental.size());
+        }
+    }
+
+    @Test
+    public void parallelAnalysisMatchesSequential() {
+        List<String> emailAddresses = randomEmailAddresses(20000);
+        EmailListOutput[] outputs = EmailListOutput.values();
+        for (EmailListOrder order : EmailListOrder.values()) {
+            EmailParserConfig parser = EmailParserConfig.custom().setListOrder(order).setMaxResults(20).build();
+            EmailListContext context = new EmailListContext(emailAddresses, EmailValidationConfig.strict(), parser);
+            EmailListAnalysis sequential = context.analyse(outputs);
+            EmailListAnalysis parallel = context.analyseParallel(outputs);
+
+            Assert.assertEquals(sequential.getValid(), parallel.getValid());
+            Assert.assertEquals(sequential.getValidDeduplicate(), parallel.getValidDeduplicate());
+            Assert.assertEquals(describeDomains(sequential.getDomains()), describeDomains(parallel.getDomains()));
+            Assert.assertEquals(describeEmailAddresses(sequential.getEmailAddresses()),
+                    describeEmailAddresses(parallel.getEmailAddresses()));
+            Assert.assertEquals(describeEmailAddresses(sequential.getDeduplicatedEmailAddresses()),
+                    describeEmailAddresses(parallel.getDeduplicatedEmailAddresses()));
+            Assert.assertEquals(sequential.getInvalidReasons(), parallel.getInvalidReasons());
+        }
+    }
+
+    private static List<String> randomEmailAddresses(int count) {
+        Random random = new Random(1);
+        List<String> emailAddresses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            emailAddresses.add(TEST_LIST.get(random.nextInt(TEST_LIST.size())).replace("a1", "a" + random.nextInt(50))
+                    .replace("java", "java" + random.nextInt(30)));
+        }
+        return emailAddresses;
+    }
+
+    private static List<String> describeDomains(List<DomainAnalysis> domains) {
+        return domains.stream().map(d -> d.getDomain() + " " + d.getTotalEmailAddressCount() + " "
+                + d.getUniqueEmailAddressCount()).collect(Collectors.toList());
+    }
+
+    private static List<String> describeEmailAddresses(List<EmailAddressAnalysis> emailAddresses) {
+        return emailAddresses.stream().map(e -> e.getParsedEmailAddress() + " " + e.getTotalCount() + " "
+                + e.getUniqueVariationCount() + " " + e.getUniqueSubAddressCount()).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,102 @@
+package emails.processors;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import emails.constants.InvalidReason;
+
+public class EmailParserTest {
+
+    @Test
+    public void reusedResultIsResetBetweenAddresses() {
+        EmailParser parser = new EmailParser(EmailValidationConfig.strict(), EmailParserConfig.standard());
+        EmailContext result = new EmailContext();
+
+        parser.parse("(comment)first.name+tag@Example.com", result);
+        Assert.assertTrue(result.isValid());
+        Assert.assertEquals("first.name+tag@example.com", result.getParsedEmailAddress());
+        Assert.assertEquals("+tag", result.getSubAddress());
+
+        parser.parse("second@example", result);
+        Assert.assertTrue(result.isValid());
+        Assert.assertFalse("Flags from the previous address should be cleared", result.hasComments());
+        Assert.assertFalse(result.hasSubAddress());
+        Assert.assertEquals("second@example", result.getParsedEmailAddress());
+
+        parser.parse("third@@example.com", result);
+        Assert.assertFalse(result.isValid());
+        Assert.assertEquals(InvalidReason.MULTIPLE_AT_SYMBOLS, result.invalidReason());
+        Assert.assertNull("Strings from the previous address should be cleared", result.getParsedEmailAddress());
+        Assert.assertNull(result.getDomain());
+    }
+
+    @Test
+    public void parsedStringsAreCached() {
+        EmailContext result = new EmailParser(null, null).parse("test@example.com");
+        Assert.assertSame(result.getParsedEmailAddress(), result.getParsedEmailAddress());
+        Assert.assertSame(result.getDomain(), result.getDomain());
+    }
+
+    @Test
+    public void emptyResultIsBlank() {
+        EmailContext result = new EmailContext();
+        Assert.assertFalse(result.isValid());
+        Assert.assertEquals(InvalidReason.BLANK, result.invalidReason());
+    }
+
+    @Test
+    public void threadParserIsReusedForEqualConfigs() {
+        EmailParser parser = EmailParser.forCurrentThread(EmailValidationConfig.generic(), EmailParserConfig.standard());
+        Assert.assertSame(parser, EmailParser.forCurrentThread(EmailValidationConfig.custom().generic().build(),
+                EmailParserConfig.custom().build()));
+        Assert.assertNotSame(parser, EmailParser.forCurrentThread(EmailValidationConfig.strict(), null));
+    }
+
+    @Test
+    public void nonAsciiSubAddressCharactersAreFound() {
+        EmailParser parser = new EmailParser(EmailValidationConfig.custom().generic().allowNonAsciiCharacters(true).build(),
+                EmailParserConfig.custom().setSubAddressCharacters('+', '\u2013').build());
+        EmailContext result = parser.parse("user\u2013tag@example.com");
+        Assert.assertTrue(result.isValid());
+        Assert.assertEquals("\u2013tag", result.getSubAddress());
+        Assert.assertFalse(parser.parse("user\u2014tag@example.com").hasSubAddress());
+        Assert.assertFalse(CharacterSet.builder().add('\u2013').build().contains('\u2014'));
+    }
+
+    @Test
+    public void bytesAreParsedInPlace() {
+        EmailParser parser = new EmailParser(EmailValidationConfig.strict(), EmailParserConfig.standard());
+        byte[] line = "to: Test.Name+tag@Example.com;".getBytes(StandardCharsets.US_ASCII);
+
+        EmailContext result = parser.parse(line, 4, 25);
+        Assert.assertTrue(result.isValid());
+        Assert.assertEquals("Test.Name+tag@example.com", result.getParsedEmailAddress());
+        Assert.assertEquals("Test.Name+tag@Example.com", result.getRawEmailAddress());
+        Assert.assertEquals(4, result.getLocalPartStart());
+        Assert.assertEquals(17, result.getLocalPartEnd());
+        Assert.assertEquals(18, result.getDomainStart());
+        Assert.assertEquals(29, result.getDomainEnd());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(line.length).put(line);
+        Assert.assertEquals("+tag", parser.parse(buffer, 4, 25, result).getSubAddress());
+        Assert.assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void nonAsciiBytesGiveByteOffsets() {
+        EmailParser parser = new EmailParser(EmailValidationConfig.custom().strict().allowNonAsciiCharacters(true).build(), null);
+        byte[] email = "jos\u00e9@example.com".getBytes(StandardCharsets.UTF_8);
+
+        EmailContext result = parser.parse(email, 0, email.length);
+        Assert.assertEquals("jos\u00e9@example.com", result.getParsedEmailAddress());
+        Assert.assertEquals(5, result.getLocalPartEnd());
+        Assert.assertEquals(email.length, result.getDomainEnd());
+
+        Assert.assertEquals(InvalidReason.BLANK, parser.parse(email, 0, 0, result).invalidReason());
+        Assert.assertEquals(-1, result.getLocalPartEnd());
+    }
+
+}